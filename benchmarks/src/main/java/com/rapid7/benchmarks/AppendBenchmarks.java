@@ -0,0 +1,37 @@
+package com.rapid7.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every append benchmark with 1, 4, 16 and 64 producer threads, profiling the
+ * allocation rate as with {@code -prof gc}.
+ * <p>
+ * Any JMH command line options are passed on, for instance a regular expression to run the
+ * benchmarks of a single adapter.
+ */
+public final class AppendBenchmarks {
+
+    private static final int[] THREADS = {1, 4, 16, 64};
+
+    private AppendBenchmarks() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        for (int threads : THREADS) {
+            OptionsBuilder options = new OptionsBuilder();
+            options.parent(commandLine);
+            if (commandLine.getIncludes().isEmpty()) {
+                options.include(AppendBenchmarks.class.getPackage().getName() + ".*AppendBenchmark");
+            }
+            options.threads(threads)
+                    .addProfiler(GCProfiler.class);
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.rapid7.benchmarks;
+
+import com.rapid7.jul.LogentriesHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Logs through java.util.logging to a {@link LogentriesHandler} sending to a {@link NullSink}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JulAppendBenchmark {
+
+    private static final String PREFIX = LogentriesHandler.class.getName();
+
+    private NullSink sink;
+    private LogentriesHandler handler;
+    private Logger logger;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sink = new NullSink();
+        String configuration = PREFIX + ".token=" + Lines.TOKEN + "\n"
+                + PREFIX + ".region=" + Lines.REGION + "\n"
+                + PREFIX + ".host=" + sink.getHost() + "\n"
+                + PREFIX + ".port=" + sink.getPort() + "\n"
+                + PREFIX + ".ssl=false\n"
+                + PREFIX + ".jmx=false\n";
+        LogManager.getLogManager().readConfiguration(new ByteArrayInputStream(configuration.getBytes(ISO_8859_1)));
+
+        handler = new LogentriesHandler();
+        logger = Logger.getLogger("benchmark");
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+    }
+
+    @Benchmark
+    public void append() {
+        logger.info(Lines.MESSAGE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        logger.removeHandler(handler);
+        handler.close();
+        sink.close();
+    }
+}
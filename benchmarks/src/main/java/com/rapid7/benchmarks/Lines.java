@@ -0,0 +1,22 @@
+package com.rapid7.benchmarks;
+
+/**
+ * Settings shared by the benchmarks of the different adapters, so that they log the same
+ * lines to the same kind of destination and can be compared with each other.
+ */
+final class Lines {
+
+    /**
+     * Any well formed token: the null sink does not check it.
+     */
+    static final String TOKEN = "0c7407d4-fd0d-4436-bb50-44f1266b4490";
+    static final String REGION = "eu";
+    /**
+     * A line of a typical length, logged by every benchmark.
+     */
+    static final String MESSAGE = "Order 4711 accepted for customer 0815 in 12 ms: 3 items, total 129.95 EUR, "
+            + "shipping to DE";
+
+    private Lines() {
+    }
+}
@@ -0,0 +1,59 @@
+package com.rapid7.benchmarks;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs through log4j2 to a {@link com.rapid7.log4j2.LogentriesAppender} sending to a
+ * {@link NullSink}, configured by {@code log4j2-benchmark.xml}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Log4j2AppendBenchmark {
+
+    private NullSink sink;
+    private LoggerContext context;
+    private Logger logger;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sink = new NullSink();
+        System.setProperty("insightops.benchmark.token", Lines.TOKEN);
+        System.setProperty("insightops.benchmark.region", Lines.REGION);
+        System.setProperty("insightops.benchmark.host", sink.getHost());
+        System.setProperty("insightops.benchmark.port", Integer.toString(sink.getPort()));
+        context = Configurator.initialize("benchmark", "log4j2-benchmark.xml");
+        logger = context.getLogger("benchmark");
+    }
+
+    @Benchmark
+    public void append() {
+        logger.info(Lines.MESSAGE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Configurator.shutdown(context);
+        sink.close();
+    }
+}
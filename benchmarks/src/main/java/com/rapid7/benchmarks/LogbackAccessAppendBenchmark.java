@@ -0,0 +1,101 @@
+package com.rapid7.benchmarks;
+
+import ch.qos.logback.access.spi.AccessContext;
+import ch.qos.logback.access.spi.AccessEvent;
+import ch.qos.logback.access.spi.ServerAdapter;
+import com.rapid7.logback.access.LogentriesAccessAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Appends an access event to a {@link LogentriesAccessAppender} sending to a {@link NullSink}.
+ * <p>
+ * The event is built once and prepared for deferred processing, so that its fields are
+ * copied out of the request and each append only costs the layout and the library.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogbackAccessAppendBenchmark {
+
+    private NullSink sink;
+    private AccessContext context;
+    private LogentriesAccessAppender appender;
+    private AccessEvent event;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sink = new NullSink();
+        context = new AccessContext();
+        appender = new LogentriesAccessAppender();
+        appender.setContext(context);
+        appender.setToken(Lines.TOKEN);
+        appender.setRegion(Lines.REGION);
+        appender.setSsl(false);
+        appender.setDataHubAddr(sink.getHost());
+        appender.setDataHubPort(sink.getPort());
+        appender.setFacility("USER");
+        appender.setJmx(false);
+        appender.start();
+        event = buildAccessEvent();
+    }
+
+    private AccessEvent buildAccessEvent() {
+        // Stub only, as the mocks must not record the calls made while benchmarking
+        HttpServletRequest request = mock(HttpServletRequest.class, withSettings().stubOnly());
+        HttpServletResponse response = mock(HttpServletResponse.class, withSettings().stubOnly());
+        ServerAdapter adapter = mock(ServerAdapter.class, withSettings().stubOnly());
+
+        when(adapter.getContentLength()).thenReturn(4096L);
+        when(adapter.getRequestTimestamp()).thenReturn(System.currentTimeMillis());
+        when(adapter.getStatusCode()).thenReturn(200);
+        when(adapter.buildResponseHeaderMap()).thenReturn(Collections.singletonMap("Content-Type", "text/html"));
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getRequestURI()).thenReturn("/orders/4711");
+        when(request.getRequestURL()).thenReturn(new StringBuffer("http://127.0.0.1/orders/4711"));
+        when(request.getRemoteUser()).thenReturn("customer-0815");
+        when(request.getRemoteHost()).thenReturn("127.0.0.1");
+        when(request.getProtocol()).thenReturn("HTTP/1.1");
+        when(request.getHeaderNames()).thenReturn(Collections.emptyEnumeration());
+        when(request.getParameterNames()).thenReturn(Collections.emptyEnumeration());
+        when(request.getAttributeNames()).thenReturn(Collections.emptyEnumeration());
+
+        AccessEvent accessEvent = new AccessEvent(context, request, response, adapter);
+        accessEvent.prepareForDeferredProcessing();
+        return accessEvent;
+    }
+
+    @Benchmark
+    public void append() {
+        appender.doAppend(event);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        appender.stop();
+        sink.close();
+    }
+}
@@ -0,0 +1,68 @@
+package com.rapid7.benchmarks;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import com.rapid7.logback.LogentriesAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs through logback-classic to a {@link LogentriesAppender} sending to a {@link NullSink}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogbackAppendBenchmark {
+
+    private NullSink sink;
+    private LoggerContext context;
+    private LogentriesAppender appender;
+    private Logger logger;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sink = new NullSink();
+        context = new LoggerContext();
+        appender = new LogentriesAppender();
+        appender.setContext(context);
+        appender.setToken(Lines.TOKEN);
+        appender.setRegion(Lines.REGION);
+        appender.setSsl(false);
+        appender.setDataHubAddr(sink.getHost());
+        appender.setDataHubPort(sink.getPort());
+        appender.setFacility("USER");
+        appender.setJmx(false);
+        appender.start();
+        logger = context.getLogger("benchmark");
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+    }
+
+    @Benchmark
+    public void append() {
+        logger.info(Lines.MESSAGE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        appender.stop();
+        context.stop();
+        sink.close();
+    }
+}
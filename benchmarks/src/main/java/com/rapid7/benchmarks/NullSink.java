@@ -0,0 +1,74 @@
+package com.rapid7.benchmarks;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process server standing in for the InsightOps endpoint: it accepts any number of
+ * connections on the loopback interface and reads and discards everything sent to it,
+ * so that the benchmarks measure the library and not the network.
+ */
+final class NullSink implements AutoCloseable {
+
+    private final ServerSocketChannel server;
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    NullSink() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread acceptor = new Thread(this::accept, "Null sink acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getHost() {
+        return InetAddress.getLoopbackAddress().getHostAddress();
+    }
+
+    int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Number of bytes read and discarded so far, over all connections.
+     */
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                Thread reader = new Thread(() -> discard(channel), "Null sink reader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+        } catch (IOException e) {
+            // Closed
+        }
+    }
+
+    private void discard(SocketChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (SocketChannel c = channel) {
+            int read;
+            while ((read = c.read(buffer)) >= 0) {
+                bytesReceived.addAndGet(read);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // Connection dropped by the client
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -3,4 +3,5 @@ package com.rapid7;
 
 public class Constants {
     public static final String DATA_ENDPOINT_TEMPLATE = "%s.data.logs.insight.rapid7.com";
+    public static final String WEBHOOK_ENDPOINT_TEMPLATE = "%s.webhook.logs.insight.rapid7.com";
 }
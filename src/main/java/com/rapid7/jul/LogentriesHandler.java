@@ -2,8 +2,14 @@ package com.rapid7.jul;
 
 import com.rapid7.net.AsyncLogger;
 import com.rapid7.net.LoggerConfiguration;
+import com.rapid7.net.OverflowPolicy;
+import com.rapid7.net.ShardingKey;
+import com.rapid7.net.SplitPolicy;
+import com.rapid7.net.Transport;
+import com.rapid7.net.WaitStrategy;
 
 import java.text.MessageFormat;
+import java.util.Locale;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -16,6 +22,12 @@ import static java.util.logging.ErrorManager.GENERIC_FAILURE;
 
 public class LogentriesHandler extends Handler {
 
+    /**
+     * How long {@link #flush()} waits for the queued lines at most. Frameworks call it freely,
+     * so it only gives the sender a moment, {@link #close()} drains within the close timeout.
+     */
+    static final long FLUSH_TIMEOUT_MS = 100;
+
     /**
      * Asynchronous Background logger
      */
@@ -48,14 +60,46 @@ public class LogentriesHandler extends Handler {
                 .useAsHostName(getStringProperty(propsPrefix + ".hostNameToLog", ""))
                 .setLogIdPrefix(getStringProperty(propsPrefix + ".logId", ""))
                 .useSSL(getBooleanProperty(propsPrefix + ".ssl", true))
+                .withBatchSize(getIntProperty(propsPrefix + ".batchSize", LoggerConfiguration.DEFAULT_BATCH_SIZE))
+                .withBatchBytes(getIntProperty(propsPrefix + ".batchBytes", LoggerConfiguration.DEFAULT_BATCH_BYTES))
+                .withLingerMs(getLongProperty(propsPrefix + ".lingerMs", LoggerConfiguration.DEFAULT_LINGER_MS))
+                .withQueueCapacity(getIntProperty(propsPrefix + ".queueCapacity", LoggerConfiguration.DEFAULT_QUEUE_CAPACITY))
+                .withQueueBytes(getLongProperty(propsPrefix + ".queueBytes", LoggerConfiguration.DEFAULT_QUEUE_BYTES))
+                .withOverflowPolicy(getEnumProperty(propsPrefix + ".overflowPolicy", OverflowPolicy.class, OverflowPolicy.DROP_OLDEST))
+                .withConnections(getIntProperty(propsPrefix + ".connections", 1))
+                .withShardingKey(getEnumProperty(propsPrefix + ".shardingKey", ShardingKey.class, ShardingKey.THREAD))
+                .withTransport(getEnumProperty(propsPrefix + ".transport", Transport.class, Transport.SOCKET))
+                .useCompression(getBooleanProperty(propsPrefix + ".compression", false))
+                .useSharedConnection(getBooleanProperty(propsPrefix + ".sharedConnection", false))
+                .useSenderPool(getBooleanProperty(propsPrefix + ".senderPool", false))
+                .useJmx(getBooleanProperty(propsPrefix + ".jmx", true))
+                .withMaxInFlight(getIntProperty(propsPrefix + ".maxInFlight", LoggerConfiguration.DEFAULT_MAX_IN_FLIGHT))
+                .withSpillDirectory(getStringProperty(propsPrefix + ".spillDirectory", null))
+                .withSpillSegmentBytes(getIntProperty(propsPrefix + ".spillSegmentBytes", LoggerConfiguration.DEFAULT_SPILL_SEGMENT_BYTES))
+                .withSpillMaxBytes(getLongProperty(propsPrefix + ".spillMaxBytes", LoggerConfiguration.DEFAULT_SPILL_MAX_BYTES))
+                .withBlockTimeoutMs(getLongProperty(propsPrefix + ".blockTimeoutMs", LoggerConfiguration.DEFAULT_BLOCK_TIMEOUT_MS))
+                .withCloseTimeoutMs(getLongProperty(propsPrefix + ".closeTimeoutMs", LoggerConfiguration.DEFAULT_CLOSE_TIMEOUT_MS))
+                .withConnectTimeoutMs(getIntProperty(propsPrefix + ".connectTimeoutMs", LoggerConfiguration.DEFAULT_CONNECT_TIMEOUT_MS))
+                .withWriteTimeoutMs(getLongProperty(propsPrefix + ".writeTimeoutMs", LoggerConfiguration.DEFAULT_WRITE_TIMEOUT_MS))
+                .withTlsProtocols(getStringProperty(propsPrefix + ".tlsProtocols", null))
+                .withTlsCipherSuites(getStringProperty(propsPrefix + ".tlsCipherSuites", null))
+                .withTlsSessionCacheSize(getIntProperty(propsPrefix + ".tlsSessionCacheSize", 0))
+                .withSendBufferBytes(getIntProperty(propsPrefix + ".sendBufferBytes", 0))
+                .useTcpNoDelay(getBooleanProperty(propsPrefix + ".tcpNoDelay", LoggerConfiguration.DEFAULT_TCP_NO_DELAY))
+                .useKeepAlive(getBooleanProperty(propsPrefix + ".keepAlive", false))
+                .withTrafficClass(getIntProperty(propsPrefix + ".trafficClass", 0))
+                .withWaitStrategy(getEnumProperty(propsPrefix + ".waitStrategy", WaitStrategy.class, WaitStrategy.BLOCKING))
+                .withSplitPolicy(getEnumProperty(propsPrefix + ".splitPolicy", SplitPolicy.class, SplitPolicy.SPLIT))
+                .withMaxSplitParts(getIntProperty(propsPrefix + ".maxSplitParts", LoggerConfiguration.DEFAULT_MAX_SPLIT_PARTS))
+                .useContinuationMarkers(getBooleanProperty(propsPrefix + ".continuationMarkers", false))
                 .build();
     }
 
 
     @Override
     public synchronized void publish(LogRecord record) {
-        if (isLoggable(record)) {
-            this.iopsAsync.addLineToQueue(formatMessage(record));
+        if (isLoggable(record) && iopsAsync.acceptsLines()) {
+            this.iopsAsync.addLineToQueue(formatMessage(record), record.getLoggerName());
         }
     }
 
@@ -73,12 +117,12 @@ public class LogentriesHandler extends Handler {
 
     @Override
     public void flush() {
-        // no need to flush since the log is sent by AsyncLogger
+        iopsAsync.flush(FLUSH_TIMEOUT_MS);
     }
 
     @Override
     public void close() {
-        iopsAsync.close();
+        iopsAsync.close(iopsAsync.getCloseTimeoutMs());
     }
 
     // -- These methods are private in LogManager
@@ -151,4 +195,32 @@ public class LogentriesHandler extends Handler {
         }
     }
 
+    long getLongProperty(String name, long defaultValue) {
+        LogManager manager = LogManager.getLogManager();
+        String val = manager.getProperty(name);
+        if (val == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(val.trim());
+        } catch (NumberFormatException e) {
+            reportError(MessageFormat.format("Error reading property ''{0}''", name), e, GENERIC_FAILURE);
+            return defaultValue;
+        }
+    }
+
+    <T extends Enum<T>> T getEnumProperty(String name, Class<T> type, T defaultValue) {
+        LogManager manager = LogManager.getLogManager();
+        String val = manager.getProperty(name);
+        if (val == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, val.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            reportError(MessageFormat.format("Error reading property ''{0}''", name), e, GENERIC_FAILURE);
+            return defaultValue;
+        }
+    }
+
 }
@@ -1,5 +1,7 @@
 package com.rapid7.jul;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
@@ -8,8 +10,14 @@ import java.util.logging.Logger;
  */
 public class MultipleLogentriesHandlerConfig {
     private static final String LOGENTRIES_HANDLER_NAMES_PROPERTY_KEY = "logentries.handler.names";
+    /**
+     * The LogManager only holds loggers weakly, keep those given a handler from being collected.
+     */
+    private static final List<Logger> CONFIGURED_LOGGERS = new CopyOnWriteArrayList<>();
 
     public MultipleLogentriesHandlerConfig() {
+        // Run again on every configuration, which replaces the loggers set up before
+        CONFIGURED_LOGGERS.clear();
         String handlerNamesPropertyValue = LogManager.getLogManager().getProperty(LOGENTRIES_HANDLER_NAMES_PROPERTY_KEY);
         if (handlerNamesPropertyValue != null) {
             String[] handlerNames = handlerNamesPropertyValue.split(",");
@@ -17,6 +25,7 @@ public class MultipleLogentriesHandlerConfig {
                 Logger logger = Logger.getLogger(handlerName);
                 logger.addHandler(new LogentriesHandler(handlerName));
                 logger.setUseParentHandlers(false);
+                CONFIGURED_LOGGERS.add(logger);
             }
         }
     }
@@ -1,9 +1,15 @@
 package com.rapid7.log4j2;
 
 import com.rapid7.net.LoggerConfiguration;
+import com.rapid7.net.OverflowPolicy;
+import com.rapid7.net.ShardingKey;
+import com.rapid7.net.SplitPolicy;
+import com.rapid7.net.Transport;
+import com.rapid7.net.WaitStrategy;
 import org.apache.logging.log4j.core.Filter;
 import org.apache.logging.log4j.core.Layout;
 import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.StringLayout;
 import org.apache.logging.log4j.core.appender.AbstractAppender;
 import org.apache.logging.log4j.core.config.plugins.Plugin;
 import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
@@ -44,6 +50,38 @@ public final class LogentriesAppender extends AbstractAppender {
                                                     @PluginAttribute("logHostName") boolean logHostName,
                                                     @PluginAttribute("hostName") String hostName,
                                                     @PluginAttribute("logID") String logID,
+                                                    @PluginAttribute(value = "batchSize", defaultInt = LoggerConfiguration.DEFAULT_BATCH_SIZE) int batchSize,
+                                                    @PluginAttribute(value = "batchBytes", defaultInt = LoggerConfiguration.DEFAULT_BATCH_BYTES) int batchBytes,
+                                                    @PluginAttribute(value = "lingerMs", defaultLong = LoggerConfiguration.DEFAULT_LINGER_MS) long lingerMs,
+                                                    @PluginAttribute(value = "queueCapacity", defaultInt = LoggerConfiguration.DEFAULT_QUEUE_CAPACITY) int queueCapacity,
+                                                    @PluginAttribute(value = "queueBytes", defaultLong = LoggerConfiguration.DEFAULT_QUEUE_BYTES) long queueBytes,
+                                                    @PluginAttribute("overflowPolicy") OverflowPolicy overflowPolicy,
+                                                    @PluginAttribute("spillDirectory") String spillDirectory,
+                                                    @PluginAttribute("transport") Transport transport,
+                                                    @PluginAttribute("compression") boolean compression,
+                                                    @PluginAttribute("sharedConnection") boolean sharedConnection,
+                                                    @PluginAttribute("senderPool") boolean senderPool,
+                                                    @PluginAttribute(value = "jmx", defaultBoolean = true) boolean jmx,
+                                                    @PluginAttribute(value = "maxInFlight", defaultInt = LoggerConfiguration.DEFAULT_MAX_IN_FLIGHT) int maxInFlight,
+                                                    @PluginAttribute(value = "connections", defaultInt = 1) int connections,
+                                                    @PluginAttribute("shardingKey") ShardingKey shardingKey,
+                                                    @PluginAttribute(value = "spillSegmentBytes", defaultInt = LoggerConfiguration.DEFAULT_SPILL_SEGMENT_BYTES) int spillSegmentBytes,
+                                                    @PluginAttribute(value = "spillMaxBytes", defaultLong = LoggerConfiguration.DEFAULT_SPILL_MAX_BYTES) long spillMaxBytes,
+                                                    @PluginAttribute(value = "blockTimeoutMs", defaultLong = LoggerConfiguration.DEFAULT_BLOCK_TIMEOUT_MS) long blockTimeoutMs,
+                                                    @PluginAttribute(value = "closeTimeoutMs", defaultLong = LoggerConfiguration.DEFAULT_CLOSE_TIMEOUT_MS) long closeTimeoutMs,
+                                                    @PluginAttribute(value = "connectTimeoutMs", defaultInt = LoggerConfiguration.DEFAULT_CONNECT_TIMEOUT_MS) int connectTimeoutMs,
+                                                    @PluginAttribute(value = "writeTimeoutMs", defaultLong = LoggerConfiguration.DEFAULT_WRITE_TIMEOUT_MS) long writeTimeoutMs,
+                                                    @PluginAttribute("tlsProtocols") String tlsProtocols,
+                                                    @PluginAttribute("tlsCipherSuites") String tlsCipherSuites,
+                                                    @PluginAttribute("tlsSessionCacheSize") int tlsSessionCacheSize,
+                                                    @PluginAttribute("sendBufferBytes") int sendBufferBytes,
+                                                    @PluginAttribute(value = "tcpNoDelay", defaultBoolean = LoggerConfiguration.DEFAULT_TCP_NO_DELAY) boolean tcpNoDelay,
+                                                    @PluginAttribute("keepAlive") boolean keepAlive,
+                                                    @PluginAttribute("trafficClass") int trafficClass,
+                                                    @PluginAttribute("waitStrategy") WaitStrategy waitStrategy,
+                                                    @PluginAttribute("splitPolicy") SplitPolicy splitPolicy,
+                                                    @PluginAttribute(value = "maxSplitParts", defaultInt = LoggerConfiguration.DEFAULT_MAX_SPLIT_PARTS) int maxSplitParts,
+                                                    @PluginAttribute("continuationMarkers") boolean continuationMarkers,
                                                     @PluginAttribute("ignoreExceptions") boolean ignoreExceptions,
                                                     @PluginElement("Layout") Layout<? extends Serializable> layout,
                                                     @PluginElement("Filters") Filter filter) {
@@ -74,6 +112,38 @@ public final class LogentriesAppender extends AbstractAppender {
                 .useAsHostName(hostName)
                 .setLogIdPrefix(logID)
                 .useSSL(ssl)
+                .withBatchSize(batchSize)
+                .withBatchBytes(batchBytes)
+                .withLingerMs(lingerMs)
+                .withQueueCapacity(queueCapacity)
+                .withQueueBytes(queueBytes)
+                .withOverflowPolicy(overflowPolicy)
+                .withSpillDirectory(spillDirectory)
+                .withTransport(transport)
+                .useCompression(compression)
+                .useSharedConnection(sharedConnection)
+                .useSenderPool(senderPool)
+                .useJmx(jmx)
+                .withMaxInFlight(maxInFlight)
+                .withConnections(connections)
+                .withShardingKey(shardingKey)
+                .withSpillSegmentBytes(spillSegmentBytes)
+                .withSpillMaxBytes(spillMaxBytes)
+                .withBlockTimeoutMs(blockTimeoutMs)
+                .withCloseTimeoutMs(closeTimeoutMs)
+                .withConnectTimeoutMs(connectTimeoutMs)
+                .withWriteTimeoutMs(writeTimeoutMs)
+                .withTlsProtocols(tlsProtocols)
+                .withTlsCipherSuites(tlsCipherSuites)
+                .withTlsSessionCacheSize(tlsSessionCacheSize)
+                .withSendBufferBytes(sendBufferBytes)
+                .useTcpNoDelay(tcpNoDelay)
+                .useKeepAlive(keepAlive)
+                .withTrafficClass(trafficClass)
+                .withWaitStrategy(waitStrategy)
+                .withSplitPolicy(splitPolicy)
+                .withMaxSplitParts(maxSplitParts)
+                .useContinuationMarkers(continuationMarkers)
                 .build();
         LogentriesManager manager = LogentriesManager.getManager(name, data);
         if (manager == null)
@@ -87,8 +157,15 @@ public final class LogentriesAppender extends AbstractAppender {
 
     @Override
     public void append(LogEvent event) {
+        if (!manager.acceptsLines()) {
+            return;
+        }
         final Layout<? extends Serializable> layout = getLayout();
-        String line = new String(layout.toByteArray(event));
-        manager.writeLine(line);
+        if (layout instanceof StringLayout) {
+            // Avoid encoding the event just to decode it again
+            manager.writeLine(((StringLayout) layout).toSerializable(event), event.getLoggerName());
+        } else {
+            manager.writeLine(layout.toByteArray(event), event.getLoggerName());
+        }
     }
 }
\ No newline at end of file
@@ -28,15 +28,39 @@ public class LogentriesManager extends AbstractManager {
 
     @Override
     protected boolean releaseSub(final long timeout, final TimeUnit timeUnit) {
-        asyncLogger.close();
+        // Log4j passes 0 when no timeout was given
+        long timeoutMs = timeout > 0 ? timeUnit.toMillis(timeout) : asyncLogger.getCloseTimeoutMs();
+        if (!asyncLogger.close(timeoutMs)) {
+            LOGGER.warn("AsyncLogger closed with lines left unsent after {} ms.", timeoutMs);
+            return false;
+        }
         LOGGER.debug("AsyncLogger closed.");
         return true;
     }
 
+    /**
+     * Tells whether lines are accepted, false once disabled by an invalid configuration or closed.
+     */
+    public boolean acceptsLines() {
+        return asyncLogger.acceptsLines();
+    }
+
     public void writeLine(String line) {
         asyncLogger.addLineToQueue(line);
     }
 
+    public void writeLine(String line, String loggerName) {
+        asyncLogger.addLineToQueue(line, loggerName);
+    }
+
+    public void writeLine(byte[] utf8) {
+        asyncLogger.addLineToQueue(utf8);
+    }
+
+    public void writeLine(byte[] utf8, String loggerName) {
+        asyncLogger.addLineToQueue(utf8, 0, utf8.length, loggerName);
+    }
+
     static class LogentriesManagerFactory implements ManagerFactory<LogentriesManager, LoggerConfiguration> {
         @Override
         public LogentriesManager createManager(String name, LoggerConfiguration data) {
@@ -36,4 +36,9 @@ public class LogentriesAppender extends LogentriesAppenderBase<ILoggingEvent, Pa
     public String getDefaultSuffixPattern() {
         return DEFAULT_SUFFIX_PATTERN;
     }
+
+    @Override
+    protected String getShardingKey(ILoggingEvent event) {
+        return event.getLoggerName();
+    }
 }
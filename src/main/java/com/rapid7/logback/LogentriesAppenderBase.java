@@ -10,8 +10,11 @@ import ch.qos.logback.core.pattern.PatternLayoutBase;
 import ch.qos.logback.core.spi.DeferredProcessingAware;
 import com.rapid7.net.AsyncLogger;
 import com.rapid7.net.LoggerConfiguration;
-
-import static java.nio.charset.StandardCharsets.UTF_8;
+import com.rapid7.net.OverflowPolicy;
+import com.rapid7.net.ShardingKey;
+import com.rapid7.net.SplitPolicy;
+import com.rapid7.net.Transport;
+import com.rapid7.net.WaitStrategy;
 
 /**
  * Logentries appender to support IAccessEvent and ILoggingEvent types.
@@ -172,6 +175,309 @@ public abstract class LogentriesAppenderBase<E extends DeferredProcessingAware,C
       this.configurationBuilder.setLogIdPrefix(logID);
     }
 
+    /**
+     * Sets the maximum number of lines written to the socket with a single flush.
+     *
+     * @param batchSize batch size in lines
+     */
+    public void setBatchSize(int batchSize) {
+      this.configurationBuilder.withBatchSize(batchSize);
+    }
+
+    /**
+     * Sets the maximum number of encoded bytes written to the socket with a single flush.
+     *
+     * @param batchBytes batch size in bytes
+     */
+    public void setBatchBytes(int batchBytes) {
+      this.configurationBuilder.withBatchBytes(batchBytes);
+    }
+
+    /**
+     * Sets how long the sender waits for more lines before writing a batch.
+     * <p>Zero sends whatever is queued immediately.</p>
+     *
+     * @param lingerMs linger time in milliseconds
+     */
+    public void setLingerMs(long lingerMs) {
+      this.configurationBuilder.withLingerMs(lingerMs);
+    }
+
+    /**
+     * Sets the maximum number of lines waiting to be sent.
+     *
+     * @param queueCapacity queue capacity in lines
+     */
+    public void setQueueCapacity(int queueCapacity) {
+      this.configurationBuilder.withQueueCapacity(queueCapacity);
+    }
+
+    /**
+     * Sets the maximum number of bytes held by lines waiting to be sent.
+     * <p>The overflow policy applies once either this or the queue capacity is reached.</p>
+     *
+     * @param queueBytes queue byte budget
+     */
+    public void setQueueBytes(long queueBytes) {
+      this.configurationBuilder.withQueueBytes(queueBytes);
+    }
+
+    /**
+     * Sets the directory of the disk journal that takes over once the queue fills up,
+     * so that lines survive long outages and restarts. Spilling is disabled if not set.
+     *
+     * @param spillDirectory spill journal directory, used by this appender only
+     */
+    public void setSpillDirectory(String spillDirectory) {
+      this.configurationBuilder.withSpillDirectory(spillDirectory);
+    }
+
+    /**
+     * Sets the size of each spill journal segment file.
+     *
+     * @param spillSegmentBytes segment size in bytes
+     */
+    public void setSpillSegmentBytes(int spillSegmentBytes) {
+      this.configurationBuilder.withSpillSegmentBytes(spillSegmentBytes);
+    }
+
+    /**
+     * Sets the maximum disk space used by the spill journal.
+     *
+     * @param spillMaxBytes journal size limit in bytes
+     */
+    public void setSpillMaxBytes(long spillMaxBytes) {
+      this.configurationBuilder.withSpillMaxBytes(spillMaxBytes);
+    }
+
+    /**
+     * Sets whether request bodies are gzip compressed with the {@code HTTP} transport.
+     *
+     * @param compression true to compress requests
+     */
+    public void setCompression(boolean compression) {
+      this.configurationBuilder.useCompression(compression);
+    }
+
+    /**
+     * Sets whether lines are sent through a connection shared with the other appenders
+     * and handlers sending to the same destination.
+     *
+     * @param sharedConnection true to share the connection
+     */
+    public void setSharedConnection(boolean sharedConnection) {
+      this.configurationBuilder.useSharedConnection(sharedConnection);
+    }
+
+    /**
+     * Sets whether lines are sent by a small pool of threads shared by all appenders
+     * and handlers, instead of a thread per connection. The connections of the pool use
+     * the NIO transport, unless the transport is HTTP, so that no thread waits on a slow peer.
+     *
+     * @param senderPool true to use the shared sender pool
+     */
+    public void setSenderPool(boolean senderPool) {
+      this.configurationBuilder.useSenderPool(senderPool);
+    }
+
+    /**
+     * Sets whether the appender statistics are registered as a JMX MBean.
+     *
+     * @param jmx true to register the MBean
+     */
+    public void setJmx(boolean jmx) {
+      this.configurationBuilder.useJmx(jmx);
+    }
+
+    /**
+     * Sets the maximum number of requests in flight with the {@code HTTP} transport.
+     *
+     * @param maxInFlight request count
+     */
+    public void setMaxInFlight(int maxInFlight) {
+      this.configurationBuilder.withMaxInFlight(maxInFlight);
+    }
+
+    /**
+     * Sets the number of connections lines are sent over, each with its own sender thread.
+     *
+     * @param connections connection count
+     */
+    public void setConnections(int connections) {
+      this.configurationBuilder.withConnections(connections);
+    }
+
+    /**
+     * Sets what keeps lines in order when there are several connections,
+     * {@code THREAD} (default) or {@code LOGGER}.
+     *
+     * @param shardingKey sharding key
+     */
+    public void setShardingKey(ShardingKey shardingKey) {
+      this.configurationBuilder.withShardingKey(shardingKey);
+    }
+
+    /**
+     * Sets the network transport, {@code SOCKET} (default), the non-blocking {@code NIO}
+     * or {@code HTTP}.
+     * <p>{@code HTTP} posts every batch to the region's HTTP ingestion endpoint, or to the
+     * configured host, over HTTPS when {@code ssl} is set and plain HTTP otherwise. The port
+     * defaults to 443 or 80 accordingly, unless one is set. {@code httpPut} is ignored.</p>
+     *
+     * @param transport network transport
+     */
+    public void setTransport(Transport transport) {
+      this.configurationBuilder.withTransport(transport);
+    }
+
+    /**
+     * Sets what happens to a line when the queue is full.
+     * <p>One of DROP_OLDEST (default), DROP_NEWEST, BLOCK or CALLER_RUNS.</p>
+     *
+     * @param overflowPolicy overflow policy
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+      this.configurationBuilder.withOverflowPolicy(overflowPolicy);
+    }
+
+    /**
+     * Sets how long a logging thread waits for queue space with the BLOCK overflow policy.
+     *
+     * @param blockTimeoutMs block timeout in milliseconds
+     */
+    public void setBlockTimeoutMs(long blockTimeoutMs) {
+      this.configurationBuilder.withBlockTimeoutMs(blockTimeoutMs);
+    }
+
+    /**
+     * Sets how long stopping the appender waits for queued lines to be sent.
+     *
+     * @param closeTimeoutMs close timeout in milliseconds
+     */
+    public void setCloseTimeoutMs(long closeTimeoutMs) {
+      this.configurationBuilder.withCloseTimeoutMs(closeTimeoutMs);
+    }
+
+    /**
+     * Sets how long opening a connection, TLS handshake included, may take.
+     *
+     * @param connectTimeoutMs connect timeout in milliseconds, 0 to wait indefinitely
+     */
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+      this.configurationBuilder.withConnectTimeoutMs(connectTimeoutMs);
+    }
+
+    /**
+     * Sets how long a write may take before the connection is considered stalled and reopened.
+     *
+     * @param writeTimeoutMs write timeout in milliseconds, 0 to wait indefinitely
+     */
+    public void setWriteTimeoutMs(long writeTimeoutMs) {
+      this.configurationBuilder.withWriteTimeoutMs(writeTimeoutMs);
+    }
+
+    /**
+     * Sets the SSL/TLS protocols the connections may use, the JVM defaults otherwise.
+     *
+     * @param tlsProtocols comma separated protocols, such as TLSv1.3,TLSv1.2
+     */
+    public void setTlsProtocols(String tlsProtocols) {
+      this.configurationBuilder.withTlsProtocols(tlsProtocols);
+    }
+
+    /**
+     * Sets the cipher suites the connections may use, the JVM defaults otherwise.
+     *
+     * @param tlsCipherSuites comma separated cipher suites
+     */
+    public void setTlsCipherSuites(String tlsCipherSuites) {
+      this.configurationBuilder.withTlsCipherSuites(tlsCipherSuites);
+    }
+
+    /**
+     * Sets how many TLS sessions are kept for resumption by a context of the library's own,
+     * rather than the JVM's default context.
+     *
+     * @param tlsSessionCacheSize number of sessions cached
+     */
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+      this.configurationBuilder.withTlsSessionCacheSize(tlsSessionCacheSize);
+    }
+
+    /**
+     * Sets the size of the socket send buffer, the operating system default otherwise.
+     *
+     * @param sendBufferBytes send buffer size in bytes
+     */
+    public void setSendBufferBytes(int sendBufferBytes) {
+      this.configurationBuilder.withSendBufferBytes(sendBufferBytes);
+    }
+
+    /**
+     * Sets whether Nagle's algorithm is disabled (default true).
+     *
+     * @param tcpNoDelay true to send segments without waiting for earlier ones to be acknowledged
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+      this.configurationBuilder.useTcpNoDelay(tcpNoDelay);
+    }
+
+    /**
+     * Sets whether TCP keepalive probes are sent on idle connections (default false).
+     *
+     * @param keepAlive true to send keepalive probes
+     */
+    public void setKeepAlive(boolean keepAlive) {
+      this.configurationBuilder.useKeepAlive(keepAlive);
+    }
+
+    /**
+     * Sets the IP type of service or traffic class octet of the packets sent, left unset otherwise.
+     *
+     * @param trafficClass value between 0 and 255, such as 16 for low delay
+     */
+    public void setTrafficClass(int trafficClass) {
+      this.configurationBuilder.withTrafficClass(trafficClass);
+    }
+
+    /**
+     * Sets how the sender waits for lines and logging threads wait for queue space.
+     * <p>One of BLOCKING (default), YIELDING or BUSY_SPIN.</p>
+     *
+     * @param waitStrategy wait strategy
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+      this.configurationBuilder.withWaitStrategy(waitStrategy);
+    }
+
+    /**
+     * Sets what happens to lines longer than the log length limit.
+     * <p>One of SPLIT (default) or TRUNCATE.</p>
+     *
+     * @param splitPolicy split policy
+     */
+    public void setSplitPolicy(SplitPolicy splitPolicy) {
+      this.configurationBuilder.withSplitPolicy(splitPolicy);
+    }
+
+    /**
+     * Sets the maximum number of parts an oversized line is split into.
+     *
+     * @param maxSplitParts maximum number of parts
+     */
+    public void setMaxSplitParts(int maxSplitParts) {
+      this.configurationBuilder.withMaxSplitParts(maxSplitParts);
+    }
+
+    /**
+     * Determines whether parts of a split line are prefixed with an event id and part number.
+     *
+     * @param continuationMarkers true to mark parts of split lines
+     */
+    public void setContinuationMarkers(boolean continuationMarkers) {
+      this.configurationBuilder.useContinuationMarkers(continuationMarkers);
+    }
+
     /**
      * Sets the encoder for this appender
      *
@@ -245,13 +551,23 @@ public abstract class LogentriesAppenderBase<E extends DeferredProcessingAware,C
      */
     @Override
     public void append(E event) {
-        // Render the event according to layout
-        byte[] encodedEvent = encoder.encode(event);
-        String formattedEvent;
-        formattedEvent = new String(encodedEvent, UTF_8);
+        if (!this.iopsAsync.acceptsLines()) {
+            return;
+        }
+        // Render the event according to layout, the encoder already produces
+        // UTF-8 bytes which are queued without decoding them again
+        byte[] line = encoder.encode(event);
+        this.iopsAsync.addLineToQueue(line, 0, line.length, getShardingKey(event));
+    }
 
-        // Prepare to be queued
-        this.iopsAsync.addLineToQueue(formattedEvent);
+    /**
+     * Gets the key of the event used with {@link ShardingKey#LOGGER}.
+     *
+     * @param event event to log
+     * @return name of the event's logger, or null if events have none
+     */
+    protected String getShardingKey(E event) {
+        return null;
     }
 
     /**
@@ -260,7 +576,7 @@ public abstract class LogentriesAppenderBase<E extends DeferredProcessingAware,C
     @Override
     public void stop() {
         super.stop();
-        this.iopsAsync.close();
+        this.iopsAsync.close(this.iopsAsync.getCloseTimeoutMs());
     }
 
     public Layout<E> buildLayout() {
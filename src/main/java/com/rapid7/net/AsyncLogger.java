@@ -1,14 +1,31 @@
 package com.rapid7.net;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import java.util.regex.Pattern;
 
 /**
@@ -22,24 +39,16 @@ import java.util.regex.Pattern;
  * @author Mark Lacomber
  */
 
-public final class AsyncLogger {
+public final class AsyncLogger implements AsyncLoggerMXBean {
 
     /*
      * Constants
      */
 
     /**
-     * Limit on individual log length ie. 2^16
+     * Limit on individual log length in encoded bytes ie. 2^16
      */
     public static final int LOG_LENGTH_LIMIT = 65536;
-    /**
-     * Size of the internal event queue.
-     */
-    private static final int QUEUE_SIZE = 32768;
-    /**
-     * Limit on recursion for appending long logs to queue
-     */
-    private static final int RECURSION_LIMIT = 32;
     /**
      * UTF-8 output character set.
      */
@@ -56,6 +65,28 @@ public final class AsyncLogger {
      * Maximal delay between attempts to reconnect in milliseconds.
      */
     private static final int MAX_DELAY = 10000;
+    /**
+     * How often the {@link SenderPool} checks whether a connection unable to take more data
+     * can take its batch.
+     */
+    private static final long WRITABLE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    /**
+     * Numbers the connections sent by the {@link SenderPool}.
+     */
+    private static final AtomicInteger POOLED_APPENDERS = new AtomicInteger();
+    /**
+     * Marks an open connection in the disconnection statistics.
+     */
+    private static final long CONNECTED = Long.MIN_VALUE;
+    /**
+     * Marks a connection with no write in progress for the {@link WriteWatchdog}.
+     */
+    private static final long NOT_WRITING = Long.MIN_VALUE;
+    /**
+     * Domain of the statistics MBeans, numbered by {@link #MBEAN_IDS}.
+     */
+    private static final String MBEAN_DOMAIN = "com.rapid7.net";
+    private static final AtomicInteger MBEAN_IDS = new AtomicInteger();
     /**
      * IOPS appender signature - used for debugging messages.
      */
@@ -69,6 +100,7 @@ public final class AsyncLogger {
      */
     private static final String INVALID_TOKEN = "\n\nIt appears your LOGENTRIES_TOKEN parameter in log4j.xml is incorrect!\n\n";
     private static final String INVALID_REGION = "\n\nMissing REGION parameter in logger configuration.\n\n";
+    private static final String INVALID_KEY_OR_LOCATION = "\n\nIt appears your KEY or LOCATION parameter for HTTP PUT is incorrect!\n\n";
     /**
      * Key Value for Token Environment Variable.
      */
@@ -77,6 +109,22 @@ public final class AsyncLogger {
      * Error message displayed when queue overflow occurs
      */
     private static final String QUEUE_OVERFLOW = "\n\nInsightOps Buffer Queue Overflow. Message Dropped!\n\n";
+    /**
+     * How long a logging thread using {@link OverflowPolicy#BLOCK} parks between checks of the byte budget.
+     */
+    private static final long BUDGET_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    /**
+     * How long flushing parks between checks of what the senders have written.
+     */
+    private static final long FLUSH_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * How long an idle sender waits on the queue before checking the spill journal again.
+     */
+    private static final long SPILL_POLL_MS = 100;
+    /**
+     * Spilling to disk starts once the queue is three quarters full, by line count or by bytes.
+     */
+    private static final int SPILL_WATERMARK_PERCENT = 75;
     /**
      * Identifier for this client library
      */
@@ -87,6 +135,32 @@ public final class AsyncLogger {
      */
     private static final Pattern HOSTNAME_REGEX = Pattern.compile("[$/\\\"&+,:;=?#|<>_* \\[\\]]");
 
+    /**
+     * Lifecycle of a logger, which only accepts lines while {@link #RUNNING}.
+     */
+    enum State {
+        /**
+         * Created, nothing logged yet.
+         */
+        NEW,
+        /**
+         * The configuration is being checked by the first thread logging.
+         */
+        STARTING,
+        /**
+         * Lines are queued and sent.
+         */
+        RUNNING,
+        /**
+         * The configuration is invalid, lines are ignored.
+         */
+        DISABLED,
+        /**
+         * Closed, lines are ignored.
+         */
+        CLOSED
+    }
+
     /*
      * Fields
      */
@@ -145,22 +219,193 @@ public final class AsyncLogger {
      * LogID - user-defined ID string that is appended to the log message if non-empty
      */
     private final String logID;
+    /**
+     * BatchSize - maximum number of lines written with a single flush.
+     */
+    private final int batchSize;
+    /**
+     * BatchBytes - maximum number of encoded bytes written with a single flush.
+     */
+    private final int batchBytes;
+    /**
+     * LingerMs - time the sender waits for more lines before writing a batch.
+     */
+    private final long lingerMs;
+    /**
+     * OverflowPolicy - what happens to a line when the queue is full.
+     */
+    private final OverflowPolicy overflowPolicy;
+    /**
+     * BlockTimeoutMs - how long a logging thread waits for queue space with {@link OverflowPolicy#BLOCK}.
+     */
+    private final long blockTimeoutMs;
+    /**
+     * CloseTimeoutMs - how long the logging frameworks wait for queued lines to be sent on close.
+     */
+    private final long closeTimeoutMs;
+    /**
+     * ConnectTimeoutMs - how long opening a connection may take, 0 to wait indefinitely.
+     */
+    private final int connectTimeoutMs;
+    /**
+     * WriteTimeoutMs - how long a write may take before the connection is reopened, 0 to wait indefinitely.
+     */
+    private final long writeTimeoutMs;
+    /**
+     * SSL/TLS context, protocols and cipher suites of the connections.
+     */
+    private final TlsSettings tls;
+    /**
+     * TCP options of the connections.
+     */
+    private final SocketSettings socketSettings;
+    /**
+     * Number of lines dropped because the queue was full.
+     */
+    private final LongAdder droppedLines = new LongAdder();
+    /**
+     * SplitPolicy - what happens to lines longer than the log length limit.
+     */
+    private final SplitPolicy splitPolicy;
+    /**
+     * MaxSplitParts - maximum number of parts an oversized line is split into.
+     */
+    private final int maxSplitParts;
+    /**
+     * Number of encoded bytes available for a line, or a part of a split line.
+     */
+    private final int partBudget;
+    /**
+     * Source of event ids for continuation markers, {@code null} if markers are disabled.
+     */
+    private final AtomicLong eventIds;
+    /**
+     * Number of oversized lines that were not sent completely.
+     */
+    private final LongAdder truncatedLines = new LongAdder();
+    /**
+     * QueueBytes - maximum number of bytes held by queued lines.
+     */
+    private final long maxQueuedBytes;
+    /**
+     * Number of bytes currently held by queued lines, including lines taken by the sender
+     * that have not been encoded into the current batch yet.
+     */
+    private final AtomicLong queuedBytes = new AtomicLong();
+    /**
+     * Disk journal taking over from the queue, {@code null} if spilling is disabled.
+     */
+    private final SpillJournal spill;
+    /**
+     * Queue length at which lines start to be spilled.
+     */
+    private final int spillLineWatermark;
+    /**
+     * Queued bytes at which lines start to be spilled.
+     */
+    private final long spillByteWatermark;
+    /**
+     * Number of lines written to the spill journal.
+     */
+    private final LongAdder spilledLines = new LongAdder();
+    /**
+     * Number of lines, or parts of lines, handed to the queues.
+     */
+    private final LongAdder enqueuedLines = new LongAdder();
+    /**
+     * Number of bytes and of batches written by the senders.
+     */
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder batchesWritten = new LongAdder();
+    /**
+     * Number of attempts to open a connection.
+     */
+    private final LongAdder connectAttempts = new LongAdder();
+    /**
+     * Time connections have spent waiting to be opened, up to their last opening.
+     */
+    private final LongAdder disconnectedNanos = new LongAdder();
+    /**
+     * Number of writes aborted for taking longer than the write timeout.
+     */
+    private final LongAdder stalledWrites = new LongAdder();
+    /**
+     * Time taken by writes to the connections.
+     */
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    /**
+     * Time lines spend between being queued and being handed to the connection.
+     */
+    private final LatencyHistogram wireLatency = new LatencyHistogram();
+    /**
+     * Name of the statistics MBean, {@code null} if not registered.
+     */
+    private final ObjectName mbeanName;
+    /**
+     * Network transport used by the sender.
+     */
+    private final Transport transport;
+    /**
+     * Gzip request bodies with {@link Transport#HTTP}.
+     */
+    private final boolean compression;
+    /**
+     * Maximum number of requests in flight with {@link Transport#HTTP}.
+     */
+    private final int maxInFlight;
+    /**
+     * Send through the shared {@link SenderPool} rather than a thread per connection.
+     */
+    private final boolean senderPool;
 
     /**
-     * Indicator if the socket appender has been started.
+     * Where the logger is in its lifecycle, which decides whether lines are accepted.
      */
-    private boolean started = false;
+    private final AtomicReference<State> state = new AtomicReference<>(State.NEW);
 
     /**
-     * Asynchronous socket appender.
+     * Asynchronous socket appenders, one per connection, each with its own queue.
      */
-    private final SocketAppender appender;
+    private final SocketAppender[] appenders;
     /**
-     * Message queue.
+     * What decides which connection sends a line.
      */
-    private final ArrayBlockingQueue<String> queue;
+    private final ShardingKey shardingKey;
+    /**
+     * Recycled queue entries.
+     */
+    private final LinePool linePool;
+    /**
+     * Tokens whose library identifier has been queued, by the loggers sending through this one.
+     */
+    private final Set<String> identifiedTokens;
 
     private final String logMessagePrefix;
+    /**
+     * Token and message prefix encoded once, written in front of every line.
+     */
+    private final byte[] lineHeader;
+    /**
+     * Logger whose queues and connections send the lines, this one unless the connection is shared.
+     */
+    private final AsyncLogger engine;
+    /**
+     * Key of the shared sender in the {@link AsyncLoggerRegistry}, {@code null} if not shared.
+     */
+    private final String sharedKey;
+    /**
+     * Whether the sender threads were started.
+     */
+    private volatile boolean sendersStarted = false;
+    /**
+     * {@link System#nanoTime()} until which closing lets requests in flight complete with
+     * {@link Transport#HTTP}, set by {@link #close(long)} and in the past until then.
+     */
+    private volatile long closeDeadline = System.nanoTime();
+    /**
+     * Whether a logger sharing its connection has let go of it.
+     */
+    private boolean released = false;
 
 
     /**
@@ -169,10 +414,29 @@ public final class AsyncLogger {
      * @param configuration logger options
      */
     public AsyncLogger(LoggerConfiguration configuration) {
+        this(configuration, AsyncLoggerRegistry.keyOf(configuration));
+    }
+
+    /**
+     * Initializes asynchronous logging, through the sender shared under the key if there is one.
+     *
+     * @param configuration logger options
+     * @param sharedKey     destination key in the {@link AsyncLoggerRegistry}, {@code null} to send by itself
+     */
+    AsyncLogger(LoggerConfiguration configuration, String sharedKey) {
+        this(configuration, sharedKey, false);
+    }
+
+    private AsyncLogger(LoggerConfiguration configuration, String sharedKey, boolean sharedSender) {
+        this.sharedKey = sharedKey;
+        this.engine = sharedKey != null ? AsyncLoggerRegistry.acquire(sharedKey, configuration) : this;
+        final boolean sends = engine == this;
 
-        queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
-        // Fill the queue with an identifier message for first entry sent to server
-        queue.offer(LIBRARY_ID);
+        final int connections = configuration.getConnections();
+        // The capacity is shared by the connections' queues
+        final int shardCapacity = Math.max(2, configuration.getQueueCapacity() / connections);
+        linePool = sends ? new LinePool(configuration.getQueueCapacity(), configuration.getBatchSize() * connections) : null;
+        identifiedTokens = sends ? ConcurrentHashMap.newKeySet() : null;
 
         this.region = configuration.getRegion();
         this.token = calculateToken(configuration);
@@ -187,9 +451,100 @@ public final class AsyncLogger {
         this.logHostName = configuration.isLogHostName();
         this.hostName = calculateHostName(configuration);
         this.logID = configuration.getLogID();
+        this.batchSize = configuration.getBatchSize();
+        this.batchBytes = configuration.getBatchBytes();
+        this.lingerMs = configuration.getLingerMs();
+        this.overflowPolicy = configuration.getOverflowPolicy();
+        this.blockTimeoutMs = configuration.getBlockTimeoutMs();
+        this.closeTimeoutMs = configuration.getCloseTimeoutMs();
+        this.connectTimeoutMs = configuration.getConnectTimeoutMs();
+        this.writeTimeoutMs = configuration.getWriteTimeoutMs();
+        this.tls = TlsSettings.of(configuration);
+        this.socketSettings = SocketSettings.of(configuration);
+        this.splitPolicy = configuration.getSplitPolicy();
+        this.maxSplitParts = configuration.getMaxSplitParts();
+        this.eventIds = configuration.isContinuationMarkers() ? new AtomicLong(new Random().nextInt() & 0xFFFFFFFFL) : null;
+        this.partBudget = configuration.isContinuationMarkers() ? LOG_LENGTH_LIMIT - LineSplitter.MARKER_RESERVE : LOG_LENGTH_LIMIT;
+        this.maxQueuedBytes = configuration.getQueueBytes();
+        this.spillLineWatermark = shardCapacity * SPILL_WATERMARK_PERCENT / 100;
+        this.spillByteWatermark = maxQueuedBytes * SPILL_WATERMARK_PERCENT / 100;
+        this.spill = sends ? openSpillJournal(configuration) : null;
+        this.transport = configuration.getTransport();
+        this.compression = configuration.isCompression();
+        this.maxInFlight = configuration.getMaxInFlight();
+        this.senderPool = configuration.isSenderPool();
+        this.shardingKey = configuration.getShardingKey();
 
         this.logMessagePrefix = buildPrefixMessage();
-        appender = new SocketAppender();
+        this.lineHeader = buildLineHeader();
+        if (sends) {
+            appenders = new SocketAppender[connections];
+            for (int i = 0; i < connections; i++) {
+                String name = connections > 1 ? "InsightOps Socket appender " + i : "InsightOps Socket appender";
+                if (senderPool) {
+                    // Tells the connections apart in the pool's backlog
+                    name += " #" + POOLED_APPENDERS.incrementAndGet();
+                }
+                appenders[i] = new SocketAppender(name, new RingBufferQueue<>(shardCapacity, configuration.getWaitStrategy()));
+            }
+
+            if (!sharedSender) {
+                queueLibraryId();
+            }
+        } else {
+            appenders = null;
+        }
+        this.mbeanName = configuration.isJmx() && !sharedSender ? registerMBean() : null;
+    }
+
+    /**
+     * Creates the sender shared by the loggers of the {@link AsyncLoggerRegistry}. It queues
+     * no library identifier and registers no MBean, the loggers using it do, once valid.
+     *
+     * @param configuration options of the first logger using it
+     */
+    static AsyncLogger sharedSender(LoggerConfiguration configuration) {
+        return new AsyncLogger(configuration, null, true);
+    }
+
+    /**
+     * Registers the statistics of this logger with the platform MBean server.
+     *
+     * @return name of the MBean, {@code null} if it could not be registered
+     */
+    private ObjectName registerMBean() {
+        try {
+            ObjectName name = new ObjectName(MBEAN_DOMAIN + ":type=AsyncLogger,id=" + MBEAN_IDS.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            return name;
+        } catch (JMException | SecurityException e) {
+            dbg("Unable to register the statistics MBean: %s", e.getMessage());
+            return null;
+        }
+    }
+
+    private void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        } catch (JMException | SecurityException e) {
+            // Already gone
+        }
+    }
+
+    private SpillJournal openSpillJournal(LoggerConfiguration configuration) {
+        if (configuration.getSpillDirectory() == null) {
+            return null;
+        }
+        try {
+            return new SpillJournal(new File(configuration.getSpillDirectory()),
+                    configuration.getSpillSegmentBytes(), configuration.getSpillMaxBytes());
+        } catch (IOException e) {
+            warn("Spilling to %s disabled: %s", configuration.getSpillDirectory(), e.getMessage());
+            return null;
+        }
     }
 
     private String calculateToken(LoggerConfiguration configuration) {
@@ -348,147 +703,943 @@ public final class AsyncLogger {
 
 
     /**
-     * Checks that the UUID is valid
+     * Gets the maximum number of lines written with a single flush.
+     *
+     * @return batch size in lines
      */
-    boolean checkValidUUID(String uuid) {
-        if ("".equals(uuid))
-            return false;
-        try {
-            UUID.fromString(uuid);
-        } catch (IllegalArgumentException e) {
-            return false;
-        }
-        return true;
+    public int getBatchSize() {
+        return this.batchSize;
     }
 
-    //  VisibleForTesting
-    SocketAppender getAppender() {
-        return appender;
+    /**
+     * Gets the maximum number of encoded bytes written with a single flush.
+     *
+     * @return batch size in bytes
+     */
+    public int getBatchBytes() {
+        return this.batchBytes;
     }
 
     /**
-     * Try and retrieve environment variable for given key, return empty string if not found
+     * Gets the time the sender waits for more lines before writing a batch.
+     *
+     * @return linger time in milliseconds
+     */
+    public long getLingerMs() {
+        return this.lingerMs;
+    }
+
+    /**
+     * Gets the policy applied when the queue is full.
+     *
+     * @return overflow policy
      */
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
 
-    private String getEnvVar(String key) {
-        String envVal = System.getenv(key);
-        return envVal != null ? envVal : "";
+    public long getCloseTimeoutMs() {
+        return this.closeTimeoutMs;
     }
 
     /**
-     * Checks that key and location are set.
+     * Gets the maximum number of lines held in the queue.
+     *
+     * @return queue capacity
      */
-    boolean checkCredentials() {
-        if (Utils.isNullOrEmpty(region)) {
-            dbg(INVALID_REGION);
-            return false;
-        }
-        if (!httpPut) {
-            return checkValidUUID(this.getToken());
+    public int getQueueCapacity() {
+        int capacity = 0;
+        for (SocketAppender appender : engine.appenders) {
+            capacity += appender.queue.size() + appender.queue.remainingCapacity();
         }
-        return checkValidUUID(this.getKey()) && !Utils.isNullOrEmpty(location);
+        return capacity;
     }
 
     /**
-     * Builds the prefix message.
+     * Gets the number of lines currently waiting to be sent.
+     *
+     * @return queued line count
      */
-    private String buildPrefixMessage() {
-        StringBuilder sb = new StringBuilder();
-        if (!Utils.isNullOrEmpty(logID)) {
-            sb.append(logID).append(" "); // Append LogID and separator between logID and the rest part of the message.
-        }
-        if (logHostName && !Utils.isNullOrEmpty(hostName)) {
-            sb.append("HostName=").append(hostName).append(" ");
+    public int getQueueSize() {
+        int size = 0;
+        for (SocketAppender appender : engine.appenders) {
+            size += appender.queue.size();
         }
-        return sb.toString();
+        return size;
     }
 
     /**
-     * Checks whether given host name is valid (e.g. does not contain any prohibited characters)
+     * Gets the number of connections lines are sent over.
      *
-     * @param hostName - string containing host name
+     * @return connection count
      */
-    boolean checkIfHostNameValid(String hostName) {
-        return !HOSTNAME_REGEX.matcher(hostName).find();
+    public int getConnections() {
+        return engine.appenders.length;
     }
 
     /**
-     * Adds the data to internal queue to be sent over the network.
-     * <p>
-     * It does not block. If the queue is full, it removes latest event first to
-     * make space.
+     * Gets the number of bytes currently held by lines waiting to be sent.
      *
-     * @param line line to append
+     * @return queued bytes
      */
-    public void addLineToQueue(String line) {
-        addLineToQueue(line, RECURSION_LIMIT);
+    public long getQueuedBytes() {
+        return engine.queuedBytes.get();
     }
 
-    private void addLineToQueue(String line, int limit) {
-        if (limit == 0) {
-            dbg("Message longer than " + RECURSION_LIMIT * LOG_LENGTH_LIMIT);
-            return;
-        }
+    /**
+     * Gets the number of lines waiting in the queue of each connection of the shared sender
+     * pool, by connection name, which tells which loggers the pool is falling behind on.
+     *
+     * @return queued line count by connection, empty without the sender pool
+     */
+    public Map<String, Integer> getSenderPoolBacklog() {
+        final SenderPool pool = engine.senderPool ? SenderPool.running() : null;
+        return pool != null ? pool.getBacklog() : Collections.emptyMap();
+    }
 
-        //// Check credentials only if logs are sent to Insight OPS directly.
-        // Check that we have all parameters set and socket appender running.
-        // If DataHub mode is used then credentials check is ignored.
-        if (!this.started && (useDataHub || this.checkCredentials())) {
-            dbg("Starting InsightOps asynchronous socket appender");
-            appender.start();
-            started = true;
-        }
+    /**
+     * Gets the network transport used to send lines.
+     *
+     * @return transport
+     */
+    public Transport getTransport() {
+        return transport;
+    }
 
-        dbg("Queueing %s", line);
+    /**
+     * Gets the number of lines written to the spill journal so far.
+     *
+     * @return spilled line count
+     */
+    public long getSpilledLines() {
+        return engine.spilledLines.sum();
+    }
 
-        // If individual string is too long add it to the queue recursively as sub-strings
-        if (line.length() > LOG_LENGTH_LIMIT) {
-            if (!queue.offer(line.substring(0, LOG_LENGTH_LIMIT))) {
-                queue.poll();
-                if (!queue.offer(line.substring(0, LOG_LENGTH_LIMIT)))
-                    dbg(QUEUE_OVERFLOW);
-            }
-            addLineToQueue(line.substring(LOG_LENGTH_LIMIT), limit - 1);
+    /**
+     * Tells whether lines are currently going to the spill journal instead of the queue.
+     *
+     * @return true while the spill journal holds unsent lines
+     */
+    public boolean isSpilling() {
+        return engine.spill != null && engine.spill.isSpilling();
+    }
 
-        } else {
-            // Try to append data to queue
-            if (!queue.offer(line)) {
-                queue.poll();
-                if (!queue.offer(line))
-                    dbg(QUEUE_OVERFLOW);
-            }
-        }
+    /**
+     * Gets the maximum number of bytes held by lines waiting to be sent.
+     *
+     * @return queue byte budget
+     */
+    public long getMaxQueuedBytes() {
+        return engine.maxQueuedBytes;
     }
 
     /**
-     * Closes all connections to InsightOps.
+     * Gets where the logger is in its lifecycle.
+     *
+     * @return name of the lifecycle state
      */
-    public void close() {
-        appender.interrupt();
-        started = false;
-        dbg("Closing InsightOps asynchronous socket appender");
+    public String getState() {
+        return state.get().name();
     }
 
     /**
-     * Prints the message given. Used for internal debugging.
+     * Gets the number of lines dropped so far because the queue was full.
      *
-     * @param msg message to display
+     * @return dropped line count
      */
-    void dbg(String msg, Object... argv) {
-        if (debug) {
-            if (!msg.endsWith(LINE_SEP)) {
-                System.err.println(IOPS + String.format(msg, argv));
-            } else {
-                System.err.print(IOPS + String.format(msg, argv));
-            }
-        }
+    public long getDroppedLines() {
+        return engine.droppedLines.sum();
     }
 
-    void warn(String msg, Object... argv) {
-        try {
-            System.err.print(IOPS);
-            System.err.printf(msg, argv);
-            System.err.println();
+    /**
+     * Tells whether the lines are sent by a sender shared with other loggers for the same destination.
+     *
+     * @return true if the connection is shared
+     */
+    public boolean isSharedConnection() {
+        return engine != this;
+    }
+
+    @Override
+    public long getEnqueuedLines() {
+        return engine.enqueuedLines.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return engine.bytesWritten.sum();
+    }
+
+    @Override
+    public long getBatchesWritten() {
+        return engine.batchesWritten.sum();
+    }
+
+    @Override
+    public long getConnectAttempts() {
+        return engine.connectAttempts.sum();
+    }
+
+    @Override
+    public long getStalledWrites() {
+        return engine.stalledWrites.sum();
+    }
+
+    @Override
+    public long getDisconnectedMillis() {
+        long nanos = engine.disconnectedNanos.sum();
+        final long now = System.nanoTime();
+        for (SocketAppender appender : engine.appenders) {
+            nanos += appender.disconnectedFor(now);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public long[] getWriteLatencyHistogram() {
+        return engine.writeLatency.counts();
+    }
+
+    @Override
+    public long getWriteLatencyP50Micros() {
+        return engine.writeLatency.percentileMicros(50);
+    }
+
+    @Override
+    public long getWriteLatencyP99Micros() {
+        return engine.writeLatency.percentileMicros(99);
+    }
+
+    @Override
+    public long[] getWireLatencyHistogram() {
+        return engine.wireLatency.counts();
+    }
+
+    @Override
+    public long[] getLatencyBucketMicros() {
+        return LatencyHistogram.upperBoundsMicros();
+    }
+
+    @Override
+    public long getWireLatencyP50Micros() {
+        return engine.wireLatency.percentileMicros(50);
+    }
+
+    @Override
+    public long getWireLatencyP99Micros() {
+        return engine.wireLatency.percentileMicros(99);
+    }
+
+    @Override
+    public long getWireLatencyP999Micros() {
+        return engine.wireLatency.percentileMicros(99.9);
+    }
+
+    @Override
+    public long getWireLatencyMaxMicros() {
+        return engine.wireLatency.maxMicros();
+    }
+
+    /**
+     * Gets the number of oversized lines that were truncated, either because of the
+     * {@link SplitPolicy#TRUNCATE} policy or because they exceeded the maximum number of parts.
+     *
+     * @return truncated line count
+     */
+    public long getTruncatedLines() {
+        return truncatedLines.sum();
+    }
+
+    /**
+     * Checks that the UUID is valid
+     */
+    boolean checkValidUUID(String uuid) {
+        if ("".equals(uuid))
+            return false;
+        try {
+            UUID.fromString(uuid);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return true;
+    }
+
+    //  VisibleForTesting
+    ObjectName getMBeanName() {
+        return mbeanName;
+    }
+
+    //  VisibleForTesting
+    SocketAppender getAppender() {
+        return engine.appenders[0];
+    }
+
+    //  VisibleForTesting
+    SocketAppender getAppender(int connection) {
+        return engine.appenders[connection];
+    }
+
+    //  VisibleForTesting
+    // Accepts lines without checking the configuration or starting the senders, so they stay queued
+    AsyncLogger holdingLines() {
+        state.set(State.RUNNING);
+        return this;
+    }
+
+    /**
+     * Try and retrieve environment variable for given key, return empty string if not found
+     */
+
+    private String getEnvVar(String key) {
+        String envVal = System.getenv(key);
+        return envVal != null ? envVal : "";
+    }
+
+    /**
+     * Checks that key and location are set.
+     */
+    boolean checkCredentials() {
+        return credentialsProblem() == null;
+    }
+
+    /**
+     * Describes what is wrong with the credentials, {@code null} if nothing is.
+     */
+    private String credentialsProblem() {
+        if (Utils.isNullOrEmpty(region)) {
+            return INVALID_REGION;
+        }
+        if (!httpPut) {
+            return checkValidUUID(this.getToken()) ? null : INVALID_TOKEN;
+        }
+        return checkValidUUID(this.getKey()) && !Utils.isNullOrEmpty(location) ? null : INVALID_KEY_OR_LOCATION;
+    }
+
+    /**
+     * Builds the prefix message.
+     */
+    private String buildPrefixMessage() {
+        StringBuilder sb = new StringBuilder();
+        if (!Utils.isNullOrEmpty(logID)) {
+            sb.append(logID).append(" "); // Append LogID and separator between logID and the rest part of the message.
+        }
+        if (logHostName && !Utils.isNullOrEmpty(hostName)) {
+            sb.append("HostName=").append(hostName).append(" ");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds the bytes sent in front of every line: the token, unless we're sending
+     * to DataHub, using HTTP PUT or posting to the token's URL, followed by the message prefix.
+     */
+    private byte[] buildLineHeader() {
+        String header = !httpPut && !useDataHub && transport != Transport.HTTP ? token + logMessagePrefix : logMessagePrefix;
+        return header.getBytes(UTF8);
+    }
+
+    /**
+     * Checks whether given host name is valid (e.g. does not contain any prohibited characters)
+     *
+     * @param hostName - string containing host name
+     */
+    boolean checkIfHostNameValid(String hostName) {
+        return !HOSTNAME_REGEX.matcher(hostName).find();
+    }
+
+    /**
+     * Adds the data to internal queue to be sent over the network.
+     * <p>
+     * If the queue is full the configured {@link OverflowPolicy} is applied; by
+     * default it does not block and removes the oldest event first to make space.
+     *
+     * @param line line to append
+     */
+    public void addLineToQueue(String line) {
+        addLineToQueue(line, null);
+    }
+
+    /**
+     * Adds the data to internal queue to be sent over the network.
+     * <p>
+     * With {@link ShardingKey#LOGGER} lines with the same key are kept in order,
+     * otherwise lines from the same thread are, and the key is ignored.
+     *
+     * @param line line to append
+     * @param key  ordering key, usually the name of the logger
+     * @see #addLineToQueue(String)
+     */
+    public void addLineToQueue(String line, String key) {
+        if (!ensureStarted()) {
+            return;
+        }
+        final SocketAppender appender = engine.appenderFor(key);
+
+        if (debug) {
+            dbg("Queueing %s", line);
+        }
+
+        final int end = line.length();
+        // Every char takes at most three bytes, so short lines need no scanning
+        if (end <= partBudget / 3) {
+            engine.enqueue(acquireLine().setText(line, 0, end), appender);
+            return;
+        }
+        // Long lines are added as several parts sharing the original string
+        int parts = LineSplitter.countParts(line, 0, end, partBudget);
+        int sent = partsToSend(parts);
+        String eventId = parts > 1 ? nextEventId() : null;
+        int start = 0;
+        for (int part = 1; part <= sent; part++) {
+            int cut = LineSplitter.nextCut(line, start, end, partBudget);
+            engine.enqueue(markPart(acquireLine().setText(line, start, cut), eventId, part, sent), appender);
+            start = cut;
+        }
+    }
+
+    /**
+     * Adds the characters to internal queue to be sent over the network.
+     * <p>
+     * The characters are copied, as UTF-8, before this method returns, so the
+     * sequence may be reused by the caller afterwards.
+     *
+     * @param line line to append
+     */
+    public void addLineToQueue(CharSequence line) {
+        if (line instanceof String || line.length() > partBudget / 3) {
+            addLineToQueue(line.toString());
+            return;
+        }
+        if (!ensureStarted()) {
+            return;
+        }
+        if (debug) {
+            dbg("Queueing %s", line);
+        }
+        engine.enqueue(acquireLine().setEncoded(line), engine.appenderFor(null));
+    }
+
+    /**
+     * Adds already UTF-8 encoded data to internal queue to be sent over the network.
+     * <p>
+     * The bytes are copied before this method returns, so the array may be reused by
+     * the caller afterwards.
+     *
+     * @param utf8 UTF-8 encoded line to append
+     */
+    public void addLineToQueue(byte[] utf8) {
+        addLineToQueue(utf8, 0, utf8.length);
+    }
+
+    /**
+     * Adds already UTF-8 encoded data to internal queue to be sent over the network.
+     *
+     * @param utf8   array holding the UTF-8 encoded line
+     * @param offset index of the first byte of the line
+     * @param length number of bytes of the line
+     * @see #addLineToQueue(byte[])
+     */
+    public void addLineToQueue(byte[] utf8, int offset, int length) {
+        addLineToQueue(utf8, offset, length, null);
+    }
+
+    /**
+     * Adds already UTF-8 encoded data to internal queue to be sent over the network.
+     *
+     * @param utf8   array holding the UTF-8 encoded line
+     * @param offset index of the first byte of the line
+     * @param length number of bytes of the line
+     * @param key    ordering key, usually the name of the logger
+     * @see #addLineToQueue(byte[])
+     * @see #addLineToQueue(String, String)
+     */
+    public void addLineToQueue(byte[] utf8, int offset, int length, String key) {
+        if (!ensureStarted()) {
+            return;
+        }
+        final SocketAppender appender = engine.appenderFor(key);
+        if (debug) {
+            dbg("Queueing %d bytes", length);
+        }
+        final int end = offset + length;
+        int cut = LineSplitter.nextCut(utf8, offset, end, partBudget);
+        if (cut == end) {
+            engine.enqueue(acquireLine().setBytes(utf8, offset, length), appender);
+            return;
+        }
+        int parts = LineSplitter.countParts(utf8, offset, end, partBudget);
+        int sent = partsToSend(parts);
+        String eventId = nextEventId();
+        for (int part = 1; part <= sent; part++) {
+            engine.enqueue(markPart(acquireLine().setBytes(utf8, offset, cut - offset), eventId, part, sent), appender);
+            offset = cut;
+            cut = LineSplitter.nextCut(utf8, offset, end, partBudget);
+        }
+    }
+
+    /**
+     * Adds already UTF-8 encoded data to internal queue to be sent over the network.
+     * <p>
+     * The remaining bytes of the buffer are copied before this method returns; the
+     * buffer's position is not changed.
+     *
+     * @param utf8 buffer holding the UTF-8 encoded line between its position and limit
+     */
+    public void addLineToQueue(ByteBuffer utf8) {
+        if (utf8.hasArray()) {
+            addLineToQueue(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining());
+            return;
+        }
+        if (utf8.remaining() > partBudget / 3) {
+            byte[] copy = new byte[utf8.remaining()];
+            utf8.duplicate().get(copy);
+            addLineToQueue(copy);
+            return;
+        }
+        if (!ensureStarted()) {
+            return;
+        }
+        if (debug) {
+            dbg("Queueing %d bytes", utf8.remaining());
+        }
+        engine.enqueue(acquireLine().setBytes(utf8, utf8.position(), utf8.remaining()), engine.appenderFor(null));
+    }
+
+    /**
+     * Returns how many parts of a line split into {@code parts} are sent, counting
+     * the line as truncated if that is not all of them.
+     */
+    private int partsToSend(int parts) {
+        int sent = splitPolicy == SplitPolicy.TRUNCATE ? 1 : Math.min(parts, maxSplitParts);
+        if (parts > 1) {
+            PipelineEvents.split(parts, sent);
+        }
+        if (sent < parts) {
+            truncatedLines.increment();
+            dbg("Message longer than %d bytes truncated to %d of %d parts", partBudget, sent, parts);
+        }
+        return sent;
+    }
+
+    private String nextEventId() {
+        return eventIds != null ? Long.toHexString(eventIds.getAndIncrement()) : null;
+    }
+
+    private static QueuedLine markPart(QueuedLine line, String eventId, int part, int parts) {
+        if (eventId != null && parts > 1) {
+            line.marker = LineSplitter.marker(eventId, part, parts);
+        }
+        return line;
+    }
+
+    /**
+     * Picks the connection sending lines of the current thread, or with the given key.
+     */
+    private SocketAppender appenderFor(String key) {
+        if (appenders.length == 1) {
+            return appenders[0];
+        }
+        if (shardingKey == ShardingKey.LOGGER && key != null) {
+            return appenders[(key.hashCode() & Integer.MAX_VALUE) % appenders.length];
+        }
+        return appenders[(int) (Thread.currentThread().getId() % appenders.length)];
+    }
+
+    /**
+     * Fills the queues with an identifier message for first entry sent to server with this
+     * logger's token, unless a logger sharing the sender already sent one with it.
+     */
+    private void queueLibraryId() {
+        if (engine.identifiedTokens.add(token != null ? token : "")) {
+            for (SocketAppender appender : engine.appenders) {
+                engine.enqueue(acquireLine().setText(LIBRARY_ID), appender);
+            }
+        }
+    }
+
+    /**
+     * Takes a line from the pool, carrying this logger's token and prefix.
+     */
+    private QueuedLine acquireLine() {
+        QueuedLine line = engine.linePool.acquire();
+        line.header = lineHeader;
+        return line;
+    }
+
+    /**
+     * Tells whether lines are accepted, checking the configuration and starting the
+     * socket appenders on the first call. Appenders may call it to skip formatting
+     * events which would be ignored, once the logger is disabled or closed.
+     *
+     * @return true while running
+     */
+    public boolean acceptsLines() {
+        return ensureStarted();
+    }
+
+    /**
+     * Starts the socket appenders on the first line, once the configuration is valid.
+     *
+     * @return false once disabled or closed, when lines are no longer accepted
+     */
+    private boolean ensureStarted() {
+        final State current = state.get();
+        if (current == State.RUNNING) {
+            return true;
+        }
+        return current != State.DISABLED && current != State.CLOSED && start();
+    }
+
+    /**
+     * Checks the configuration once, from the first thread logging, while the others wait for the outcome.
+     */
+    private boolean start() {
+        while (true) {
+            final State current = state.get();
+            switch (current) {
+                case NEW:
+                    if (state.compareAndSet(State.NEW, State.STARTING)) {
+                        return validateAndStart();
+                    }
+                    break;
+                case STARTING:
+                    Thread.yield();
+                    break;
+                default:
+                    return current == State.RUNNING;
+            }
+        }
+    }
+
+    private boolean validateAndStart() {
+        //// Check credentials only if logs are sent to Insight OPS directly.
+        // If DataHub mode is used then credentials check is ignored.
+        final String problem = useDataHub ? null : credentialsProblem();
+        if (problem != null) {
+            if (state.compareAndSet(State.STARTING, State.DISABLED)) {
+                warn("Logging disabled, lines will be ignored: %s", problem.trim());
+            }
+            return false;
+        }
+        if (engine != this) {
+            // Once started, so that a disabled logger sends nothing with its token
+            queueLibraryId();
+        }
+        engine.startSenders();
+        // Fails if closed in the meantime
+        return state.compareAndSet(State.STARTING, State.RUNNING);
+    }
+
+    private synchronized void startSenders() {
+        // Not once closed, as the senders would never be stopped
+        if (!sendersStarted && state.get() != State.CLOSED) {
+            dbg("Starting InsightOps asynchronous socket appender");
+            for (SocketAppender appender : appenders) {
+                if (senderPool) {
+                    SenderPool.register(appender);
+                } else {
+                    appender.start();
+                }
+                if (watchesWrites()) {
+                    WriteWatchdog.watch(appender);
+                }
+            }
+            sendersStarted = true;
+        }
+    }
+
+    /**
+     * Writes with {@link Transport#HTTP} only queue requests, which have their own timeouts.
+     */
+    private boolean watchesWrites() {
+        return writeTimeoutMs > 0 && transport != Transport.HTTP;
+    }
+
+    /**
+     * Stops the senders, holding the lock of {@link #startSenders()} so that they
+     * cannot be started afterwards.
+     */
+    private synchronized void stopSenders() {
+        for (SocketAppender appender : appenders) {
+            if (watchesWrites()) {
+                WriteWatchdog.unwatch(appender);
+            }
+            if (senderPool) {
+                SenderPool.unregister(appender);
+            } else {
+                appender.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Appends the line to the queue, applying the overflow policy if it is full,
+     * either by line count or by the byte budget.
+     */
+    private void enqueue(QueuedLine line, SocketAppender appender) {
+        enqueuedLines.increment();
+        line.enqueuedAt = System.nanoTime();
+        PipelineEvents.enqueued(line.size());
+        queue(line, appender);
+        final SenderPool.Worker worker = appender.worker;
+        if (worker != null) {
+            worker.wake();
+        }
+    }
+
+    private void queue(QueuedLine line, SocketAppender appender) {
+        final BlockingQueue<QueuedLine> queue = appender.queue;
+        line.queuedSize = line.retainedSize();
+        // Checked without the journal's lock first, which only spilling needs
+        if (spill != null && (spill.isSpilling() || aboveSpillWatermark(queue))) {
+            switch (spill.offer(line, aboveSpillWatermark(queue))) {
+                case SPILLED:
+                    spilledLines.increment();
+                    linePool.release(line);
+                    return;
+                case FULL:
+                    if (overflowPolicy == OverflowPolicy.BLOCK || overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+                        // Sent ahead of the journal rather than lost, as the policy asks
+                        overflow(line, appender);
+                    } else {
+                        discard(line);
+                    }
+                    return;
+                default:
+                    break;
+            }
+        }
+        // Try to append data to queue
+        if (offer(line, queue)) {
+            return;
+        }
+        overflow(line, appender);
+    }
+
+    /**
+     * Applies the overflow policy to a line which found no room.
+     */
+    private void overflow(QueuedLine line, SocketAppender appender) {
+        final BlockingQueue<QueuedLine> queue = appender.queue;
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!offer(line, queue)) {
+                    QueuedLine oldest = queue.poll();
+                    if (oldest == null) {
+                        // Other threads took the space we made
+                        discard(line);
+                        return;
+                    }
+                    queuedBytes.addAndGet(-oldest.queuedSize);
+                    discard(oldest);
+                }
+                break;
+            case BLOCK:
+                if (!offerBlocking(line, queue)) {
+                    discard(line);
+                }
+                break;
+            case CALLER_RUNS:
+                if (!appender.writeDirect(line)) {
+                    dropped();
+                }
+                linePool.release(line);
+                break;
+            default:
+                discard(line);
+        }
+    }
+
+    private boolean aboveSpillWatermark(BlockingQueue<QueuedLine> queue) {
+        return queue.size() >= spillLineWatermark || queuedBytes.get() >= spillByteWatermark;
+    }
+
+    /**
+     * Reserves the line's bytes in the budget and offers it to the queue.
+     */
+    private boolean offer(QueuedLine line, BlockingQueue<QueuedLine> queue) {
+        if (!reserve(line.queuedSize)) {
+            return false;
+        }
+        if (queue.offer(line)) {
+            return true;
+        }
+        queuedBytes.addAndGet(-line.queuedSize);
+        return false;
+    }
+
+    /**
+     * Waits for both a free slot and enough of the byte budget, up to the block timeout.
+     */
+    private boolean offerBlocking(QueuedLine line, BlockingQueue<QueuedLine> queue) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+        try {
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                if (reserve(line.queuedSize)) {
+                    if (queue.offer(line, Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                        return true;
+                    }
+                    queuedBytes.addAndGet(-line.queuedSize);
+                    return false;
+                }
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(Math.min(remaining, BUDGET_PARK_NANOS));
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Takes {@code size} bytes out of the budget. A line larger than the whole budget
+     * is still accepted when nothing else is queued, otherwise it could never be sent.
+     */
+    private boolean reserve(int size) {
+        while (true) {
+            long current = queuedBytes.get();
+            if (current > 0 && current + size > maxQueuedBytes) {
+                return false;
+            }
+            if (queuedBytes.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives the line's bytes back to the budget once the sender has taken it.
+     */
+    private void released(QueuedLine line) {
+        queuedBytes.addAndGet(-line.queuedSize);
+        linePool.release(line);
+    }
+
+    /**
+     * Drops a line that is not, or no longer, in the queue.
+     */
+    private void discard(QueuedLine line) {
+        linePool.release(line);
+        dropped();
+    }
+
+    private void dropped() {
+        droppedLines.increment();
+        PipelineEvents.dropped(overflowPolicy);
+        if (debug) {
+            dbg(QUEUE_OVERFLOW);
+        }
+    }
+
+    /**
+     * Waits until every line queued before the call has been written to InsightOps, or with
+     * {@link Transport#HTTP} until their requests have completed.
+     * Lines spilled to disk are not waited for, they are sent once the connection allows.
+     *
+     * @param timeoutMs how long to wait at most, in milliseconds
+     * @return true if the lines were written in time
+     */
+    public boolean flush(long timeoutMs) {
+        return engine.awaitWritten(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs));
+    }
+
+    private boolean awaitWritten(long deadline) {
+        for (SocketAppender appender : appenders) {
+            final long target = appender.queue.produced();
+            while (appender.writtenThrough < target) {
+                if (!sendersStarted || System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(FLUSH_PARK_NANOS);
+            }
+            // Read after writtenThrough, which the sender updates once it has set its client
+            final InsightOpsClient client = appender.iopsClient;
+            if (client instanceof HttpBulkInsightOpsClient && !((HttpBulkInsightOpsClient) client).awaitDelivered(deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting lines, sends those already queued within the timeout, then closes
+     * all connections to InsightOps.
+     *
+     * @param timeoutMs how long to wait for queued lines at most, in milliseconds
+     * @return true if all queued lines were written
+     */
+    public boolean close(long timeoutMs) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        state.set(State.CLOSED);
+        engine.closeDeadline = deadline;
+        final boolean written = flush(timeoutMs);
+        if (!written) {
+            warn("Closing with %d lines left unsent", getQueueSize());
+        }
+        close();
+        if (engine == this && sendersStarted && !senderPool) {
+            // Let the sender threads close their connections
+            try {
+                for (SocketAppender appender : appenders) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    appender.join(Math.max(1, remaining));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Closes all connections to InsightOps right away, dropping the lines not sent yet.
+     */
+    public void close() {
+        state.set(State.CLOSED);
+        unregisterMBean();
+        if (engine != this) {
+            // Other loggers may still be using the connection
+            synchronized (this) {
+                if (!released) {
+                    released = true;
+                    AsyncLoggerRegistry.release(sharedKey, engine);
+                }
+            }
+            return;
+        }
+        stopSenders();
+        if (spill != null) {
+            spill.close();
+        }
+        dbg("Closing InsightOps asynchronous socket appender");
+    }
+
+    /**
+     * Prints the message given. Used for internal debugging.
+     *
+     * @param msg message to display
+     */
+    void dbg(String msg, Object... argv) {
+        if (debug) {
+            if (!msg.endsWith(LINE_SEP)) {
+                System.err.println(IOPS + String.format(msg, argv));
+            } else {
+                System.err.print(IOPS + String.format(msg, argv));
+            }
+        }
+    }
+
+    void warn(String msg, Object... argv) {
+        try {
+            System.err.print(IOPS);
+            System.err.printf(msg, argv);
+            System.err.println();
         } catch (IllegalFormatException e) {
             System.err.println(msg);
             System.err.println(IOPS + " suppressed IllegalFormatException");
@@ -502,12 +1653,35 @@ public final class AsyncLogger {
         }
     }
 
+    /**
+     * Tells whether all connections' queues are empty.
+     */
+    private boolean queuesEmpty() {
+        for (SocketAppender appender : appenders) {
+            if (!appender.queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Asynchronous over the socket appender.
      *
      * @author Viliam Holub
      */
     class SocketAppender extends Thread {
+        /**
+         * Lines waiting to be sent over this connection.
+         */
+        final RingBufferQueue<QueuedLine> queue;
+
+        /**
+         * Count of lines taken from the queue that have been written, or dropped from it.
+         * {@link #flush(long)} compares it with the count of lines ever queued.
+         */
+        volatile long writtenThrough;
+
         /**
          * Random number generator for delays between reconnection attempts.
          */
@@ -519,11 +1693,73 @@ public final class AsyncLogger {
         // VisibleForTesting
         InsightOpsClient iopsClient;
 
+        /**
+         * Serializes writes of the sender thread and of logging threads using {@link OverflowPolicy#CALLER_RUNS}.
+         */
+        private final Object writeLock = new Object();
+
+        /**
+         * Reusable buffer holding the encoded lines of the current batch.
+         */
+        private final LineEncoder batchEncoder = new LineEncoder(lineHeader, LINE_SEP, batchBytes);
+
+        /**
+         * Pool thread sending the lines, {@code null} with a dedicated thread.
+         */
+        volatile SenderPool.Worker worker;
+        /**
+         * Set once the connection has been handed back to the pool. Guarded by {@link SenderPool}.
+         */
+        boolean unregistered;
+
+        /**
+         * Sender pool state: whether the connection is open, since when a batch has been
+         * lingering, and since when the client has been unable to take it.
+         */
+        private volatile boolean connected;
+        private long lingerStartNanos = -1;
+        private long blockedSinceNanos = -1;
+
+        /**
+         * Guards the sender pool state shared with its connector threads: whether one is
+         * opening or closing the connection, when to try opening it next, and whether the
+         * pool has let go of the connection.
+         */
+        private final Object connectLock = new Object();
+        private boolean connecting;
+        private long nextConnectNanos;
+        private boolean retired;
+        private int reconnectDelay = MIN_DELAY;
+
+        /**
+         * Since when the connection has been waiting to be opened, {@link #CONNECTED} while it is open.
+         */
+        private volatile long disconnectedSince = CONNECTED;
+        private long batchConsumed;
+        /**
+         * When the write in progress started, {@link #NOT_WRITING} between writes.
+         */
+        private final AtomicLong writeStartedNanos = new AtomicLong(NOT_WRITING);
+
+        /**
+         * Queuing times of the lines encoded in the batch buffer.
+         */
+        private final long[] batchEnqueuedAt = new long[batchSize];
+        private int batchTimed;
+        /**
+         * Number of lines encoded in the batch buffer.
+         */
+        private int batchLines;
+
         /**
          * Initializes the socket appender.
+         *
+         * @param name  name of the sender thread
+         * @param queue lines to send
          */
-        SocketAppender() {
-            super("InsightOps Socket appender");
+        SocketAppender(String name, RingBufferQueue<QueuedLine> queue) {
+            super(name);
+            this.queue = queue;
             // Don't block shut down
             setDaemon(true);
             setUncaughtExceptionHandler((t, e) -> {
@@ -538,17 +1774,37 @@ public final class AsyncLogger {
          * @throws IOException Thrown if we fail to connect
          */
         void openConnection() throws IOException {
+            connectAttempts.increment();
             if (this.iopsClient == null) {
-                this.iopsClient = new InsightOpsClient(httpPut, ssl, useDataHub, dataHubAddr, dataHubPort, region);
+                this.iopsClient = createClient();
+                this.iopsClient.setTimeouts(connectTimeoutMs, writeTimeoutMs);
+                this.iopsClient.setTls(tls);
+                this.iopsClient.setSocketSettings(socketSettings);
             }
             this.iopsClient.connect();
 
-            if (httpPut) {
+            if (httpPut && transport != Transport.HTTP) {
                 final String f = "PUT /%s/hosts/%s/?realtime=1 HTTP/1.1\r\n\r\n";
                 final String header = String.format(f, key, location);
                 byte[] temp = header.getBytes(ASCII);
-                this.iopsClient.write(temp, 0, temp.length);
+                synchronized (writeLock) {
+                    this.iopsClient.write(temp, 0, temp.length);
+                }
+            }
+        }
+
+        private InsightOpsClient createClient() {
+            if (transport == Transport.HTTP) {
+                HttpBulkInsightOpsClient client = new HttpBulkInsightOpsClient(ssl, useDataHub, dataHubAddr, dataHubPort, region,
+                        token, compression, maxInFlight);
+                client.setDroppedLinesListener(droppedLines::add);
+                return client;
             }
+            if (transport == Transport.NIO || senderPool) {
+                // Buffers writes, which the pool threads must not wait on
+                return new NioInsightOpsClient(httpPut, ssl, useDataHub, dataHubAddr, dataHubPort, region);
+            }
+            return new InsightOpsClient(httpPut, ssl, useDataHub, dataHubAddr, dataHubPort, region);
         }
 
         /**
@@ -562,12 +1818,14 @@ public final class AsyncLogger {
 
             // Close the previous connection
             closeConnection();
+            markDisconnected();
 
             // Try to open the connection until we get through
             int rootDelay = MIN_DELAY;
             while (true) {
                 try {
                     openConnection();
+                    markConnected();
 
                     // Success, leave
                     return;
@@ -584,6 +1842,7 @@ public final class AsyncLogger {
                 }
                 int waitFor = rootDelay + random.nextInt(rootDelay);
                 warn("Waiting for %d ms", waitFor);
+                PipelineEvents.reconnectBackoff(waitFor);
                 Thread.sleep(waitFor);
             }
         }
@@ -592,62 +1851,429 @@ public final class AsyncLogger {
          * Closes the connection. Ignores errors.
          */
         void closeConnection() {
-            if (this.iopsClient != null)
+            if (this.iopsClient instanceof HttpBulkInsightOpsClient) {
+                final long remainingMs = Math.max(0, TimeUnit.NANOSECONDS.toMillis(closeDeadline - System.nanoTime()));
+                ((HttpBulkInsightOpsClient) this.iopsClient).close(remainingMs);
+            } else if (this.iopsClient != null) {
                 this.iopsClient.close();
+            }
         }
 
 
         /**
-         * Initializes the connection and starts to log.
+         * Collects further lines for the batch started by {@code batch}.
+         * <p>
+         * Without a linger time only the lines already waiting in the queue are taken,
+         * otherwise the sender keeps waiting for more lines until the batch is full or
+         * the linger time has elapsed.
+         *
+         * @param batch batch holding at least the first line
+         * @throws InterruptedException Thrown when interrupted while waiting for lines
          */
-        @Override
-        public void run() {
+        void collectBatch(List<QueuedLine> batch) throws InterruptedException {
+            queue.drainTo(batch, batchSize - batch.size());
+            if (replaysSpill() && spill.isSpilling()) {
+                // Spilled lines are late already, send them without lingering
+                QueuedLine line;
+                while (batch.size() < batchSize && (line = pollSpill()) != null) {
+                    batch.add(line);
+                }
+                return;
+            }
+            if (lingerMs <= 0) {
+                return;
+            }
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+            while (batch.size() < batchSize) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                QueuedLine line = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (line == null) {
+                    return;
+                }
+                batch.add(line);
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+        }
+
+        /**
+         * Waits for the next line, from the queue first, then from the spill journal.
+         * Lines only go to the journal while it is not empty, and only after the queue
+         * has filled up, so this keeps them in order.
+         *
+         * @return next line to send
+         * @throws InterruptedException Thrown when interrupted while waiting for lines
+         */
+        QueuedLine takeLine() throws InterruptedException {
+            if (!replaysSpill()) {
+                return queue.take();
+            }
+            while (true) {
+                QueuedLine line = queue.poll();
+                if (line == null) {
+                    line = pollSpill();
+                }
+                if (line == null) {
+                    line = queue.poll(SPILL_POLL_MS, TimeUnit.MILLISECONDS);
+                }
+                if (line != null) {
+                    return line;
+                }
+            }
+        }
+
+        /**
+         * The first connection replays the spill journal, once every queue has been sent,
+         * since lines only go to the journal after those in the queues.
+         */
+        private boolean replaysSpill() {
+            return spill != null && this == appenders[0];
+        }
+
+        private QueuedLine pollSpill() {
+            if (!spill.isSpilling() || !queuesEmpty()) {
+                return null;
+            }
+            QueuedLine line = linePool.acquire();
+            if (spill.poll(line)) {
+                return line;
+            }
+            linePool.release(line);
+            return null;
+        }
+
+        /**
+         * Writes a single line on the calling thread, used by {@link OverflowPolicy#CALLER_RUNS}.
+         * Does not try to reconnect if the connection is not available.
+         *
+         * @param line line to send
+         * @return true if the line was written
+         */
+        boolean writeDirect(QueuedLine line) {
+            LineEncoder encoder = new LineEncoder(lineHeader, LINE_SEP, line.size() + lineHeader.length + 1);
+            encoder.append(line);
+            synchronized (writeLock) {
+                if (this.iopsClient == null) {
+                    return false;
+                }
+                try {
+                    write(encoder.array(), encoder.length(), 1);
+                    return true;
+                } catch (IOException e) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Writes encoded lines, counting them in the statistics. Called holding {@link #writeLock}.
+         */
+        private void write(byte[] bytes, int length, int lines) throws IOException {
+            final long start = System.nanoTime();
+            writeStartedNanos.set(start);
             try {
-                // Open connection
-                reopenConnection();
+                this.iopsClient.write(bytes, 0, length);
+            } finally {
+                writeStartedNanos.set(NOT_WRITING);
+            }
+            final long nanos = System.nanoTime() - start;
+            writeLatency.record(nanos);
+            bytesWritten.add(length);
+            batchesWritten.increment();
+            PipelineEvents.batchWritten(lines, length, nanos);
+        }
+
+        /**
+         * Closes the connection if the write in progress started longer than the write timeout
+         * ago, so that it fails and the sender reconnects. Called by the {@link WriteWatchdog}.
+         *
+         * @param now current {@link System#nanoTime()}
+         */
+        void abortStalledWrite(long now) {
+            final long started = writeStartedNanos.get();
+            if (started == NOT_WRITING || now - started <= TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs)
+                    || !writeStartedNanos.compareAndSet(started, NOT_WRITING)) {
+                return;
+            }
+            stalledWrites.increment();
+            warn("Write to InsightOps stalled for %d ms, reconnecting", TimeUnit.NANOSECONDS.toMillis(now - started));
+            final InsightOpsClient client = this.iopsClient;
+            if (client != null) {
+                client.close();
+            }
+        }
+
+        /**
+         * Appends the line to the batch buffer, after which it is no longer needed and is recycled.
+         */
+        private void encode(QueuedLine line) {
+            batchEncoder.append(line);
+            batchLines++;
+            if (line.enqueuedAt != 0 && batchTimed < batchEnqueuedAt.length) {
+                batchEnqueuedAt[batchTimed++] = line.enqueuedAt;
+            }
+            released(line);
+        }
 
-                // Use StringBuilder here because if use just overloaded
-                // + operator it may give much more work for allocator and GC.
-                StringBuilder finalDataBuilder = new StringBuilder();
+        /**
+         * Records how long the lines of the batch just written waited since being queued.
+         */
+        private void recordWireLatency() {
+            final long now = System.nanoTime();
+            for (int i = 0; i < batchTimed; i++) {
+                wireLatency.record(now - batchEnqueuedAt[i]);
+            }
+            batchTimed = 0;
+            batchLines = 0;
+        }
 
-                // Send data in queue
-                while (true) {
-                    // Take data from queue
-                    String data = queue.take();
+        private void markDisconnected() {
+            if (disconnectedSince == CONNECTED) {
+                disconnectedSince = System.nanoTime();
+            }
+        }
 
-                    // Replace platform-independent carriage return with unicode line separator character to format multi-line events nicely in Logentries UI
-                    data = data.replace(LINE_SEP, "\u2028");
+        private void markConnected() {
+            final long since = disconnectedSince;
+            if (since != CONNECTED) {
+                disconnectedNanos.add(System.nanoTime() - since);
+                disconnectedSince = CONNECTED;
+            }
+        }
 
-                    finalDataBuilder.setLength(0); // Clear the buffer to be re-used - it may be faster than re-allocating space for new String instances.
+        /**
+         * Time the connection has been waiting to be opened so far, 0 while it is open.
+         */
+        long disconnectedFor(long now) {
+            final long since = disconnectedSince;
+            return since == CONNECTED ? 0 : now - since;
+        }
 
-                    // If we're neither sending to DataHub nor using HTTP PUT
-                    // then append the token to the start of the message.
-                    if (!httpPut && !useDataHub) {
-                        finalDataBuilder.append(token);
+        /**
+         * Writes the batch buffer with a single flush, reconnecting until it succeeds.
+         *
+         * @throws InterruptedException Thrown when interrupted while reconnecting
+         */
+        void flushBatch() throws InterruptedException {
+            if (batchEncoder.length() == 0) {
+                return;
+            }
+            // Send data, reconnect if needed
+            while (true) {
+                try {
+                    synchronized (writeLock) {
+                        write(batchEncoder.array(), batchEncoder.length(), batchLines);
                     }
+                    break;
+                } catch (IOException e) {
+                    // Reopen the lost connection
+                    reopenConnection();
+                }
+            }
+            recordWireLatency();
+            batchEncoder.reset();
+        }
 
-                    // If message prefix (LogID + HostName) is not empty
-                    // then add it to the message.
-                    if (!Utils.isNullOrEmpty(logMessagePrefix)) {
-                        finalDataBuilder.append(logMessagePrefix);
+        /**
+         * Sends at most one batch without waiting, used by the {@link SenderPool} in place of
+         * {@link #run()}. The connection is opened by a connector thread of the pool, and a
+         * batch is only written once the client can take it without waiting for the peer.
+         * A batch that fails to be sent stays encoded and is sent again once the connection
+         * has been reopened.
+         *
+         * @return nanoseconds until this connection needs servicing again, 0 if right away
+         */
+        long service() {
+            final long now = System.nanoTime();
+            try {
+                if (!connected) {
+                    return requestConnection(now);
+                }
+                if (batchEncoder.length() == 0) {
+                    writtenThrough = queue.consumed();
+                    final boolean replaying = replaysSpill() && spill.isSpilling();
+                    if (lingerMs > 0 && !replaying && queue.size() < batchSize) {
+                        if (queue.isEmpty()) {
+                            lingerStartNanos = -1;
+                            return idleNanos();
+                        }
+                        if (lingerStartNanos < 0) {
+                            lingerStartNanos = now;
+                        }
+                        long wait = lingerStartNanos + TimeUnit.MILLISECONDS.toNanos(lingerMs) - now;
+                        if (wait > 0) {
+                            return wait;
+                        }
                     }
+                    lingerStartNanos = -1;
+                    int count = 0;
+                    QueuedLine line;
+                    while (count < batchSize && batchEncoder.length() < batchBytes
+                            && ((line = queue.poll()) != null || (replaysSpill() && (line = pollSpill()) != null))) {
+                        encode(line);
+                        count++;
+                    }
+                    if (count == 0) {
+                        return idleNanos();
+                    }
+                    batchConsumed = queue.consumed();
+                }
+                if (this.iopsClient.wouldWait(batchEncoder.length())) {
+                    return awaitWritable(now);
+                }
+                blockedSinceNanos = -1;
+                try {
+                    synchronized (writeLock) {
+                        write(batchEncoder.array(), batchEncoder.length(), batchLines);
+                    }
+                    recordWireLatency();
+                    batchEncoder.reset();
+                    writtenThrough = batchConsumed;
+                } catch (IOException e) {
+                    // Reopen the lost connection on the next turn
+                    connected = false;
+                    return 0;
+                }
+                return queue.isEmpty() ? idleNanos() : 0;
+            } catch (RuntimeException e) {
+                warn("Sender pool failed to send for %s : %s", getName(), e.getMessage());
+                warn(e);
+                return idleNanos();
+            }
+        }
+
+        /**
+         * Has a connector thread open the connection, unless one already is or the delay
+         * after the last failed attempt has not elapsed yet.
+         *
+         * @return nanoseconds until this connection needs servicing again
+         */
+        private long requestConnection(long now) {
+            synchronized (connectLock) {
+                if (connecting || retired) {
+                    // The pool thread is woken once the connection is open
+                    return idleNanos();
+                }
+                if (now - nextConnectNanos < 0) {
+                    return nextConnectNanos - now;
+                }
+                connecting = true;
+            }
+            worker.connect(this::connectPooled);
+            return idleNanos();
+        }
+
+        /**
+         * Reopens the connection on a connector thread of the pool, then wakes the pool
+         * thread to send through it, or schedules the next attempt if it failed.
+         */
+        private void connectPooled() {
+            Exception failure = null;
+            try {
+                closeConnection();
+                markDisconnected();
+                openConnection();
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+            final boolean abandoned;
+            synchronized (connectLock) {
+                connecting = false;
+                abandoned = retired;
+                if (!abandoned && failure == null) {
+                    markConnected();
+                    reconnectDelay = MIN_DELAY;
+                    connected = true;
+                } else if (!abandoned) {
+                    reconnectDelay = Math.min(reconnectDelay * 2, MAX_DELAY);
+                    int waitFor = reconnectDelay + random.nextInt(reconnectDelay);
+                    PipelineEvents.reconnectBackoff(waitFor);
+                    nextConnectNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitFor);
+                }
+            }
+            if (abandoned) {
+                // Closed while it was being opened
+                closeConnection();
+                return;
+            }
+            if (failure != null) {
+                warn("Unable to connect to InsightOps");
+                warn(failure);
+            }
+            worker.wake();
+        }
+
+        /**
+         * Closes the connection once the pool no longer sends through it, on a connector
+         * thread, or once the connector opening it is done.
+         */
+        void retire() {
+            synchronized (connectLock) {
+                retired = true;
+                if (connecting) {
+                    return;
+                }
+                connecting = true;
+            }
+            worker.connect(this::closeConnection);
+        }
+
+        /**
+         * Waits for the client to take more data, reopening the connection if it has not
+         * for longer than the write timeout.
+         *
+         * @return nanoseconds until this connection needs servicing again
+         */
+        private long awaitWritable(long now) {
+            if (blockedSinceNanos < 0) {
+                blockedSinceNanos = now;
+            } else if (watchesWrites() && now - blockedSinceNanos > TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs)) {
+                stalledWrites.increment();
+                warn("Write to InsightOps stalled for %d ms, reconnecting", TimeUnit.NANOSECONDS.toMillis(now - blockedSinceNanos));
+                blockedSinceNanos = -1;
+                connected = false;
+                return 0;
+            }
+            return WRITABLE_POLL_NANOS;
+        }
+
+        /**
+         * How long an idle connection waits before being serviced again, unless a line is queued.
+         */
+        private long idleNanos() {
+            return replaysSpill() ? TimeUnit.MILLISECONDS.toNanos(SPILL_POLL_MS) : Long.MAX_VALUE;
+        }
 
-                    // Append the event data
-                    finalDataBuilder.append(data).append('\n');
+        /**
+         * Initializes the connection and starts to log.
+         */
+        @Override
+        public void run() {
+            try {
+                // Open connection
+                reopenConnection();
 
-                    // Get bytes of final event
-                    byte[] finalLine = finalDataBuilder.toString().getBytes(UTF8);
+                List<QueuedLine> batch = new ArrayList<>(batchSize);
 
-                    // Send data, reconnect if needed
-                    while (true) {
-                        try {
-                            this.iopsClient.write(finalLine, 0, finalLine.length);
-                            break;
-                        } catch (IOException e) {
-                            // Reopen the lost connection
-                            reopenConnection();
+                // Send data in queue
+                while (true) {
+                    // Everything taken so far has been written
+                    writtenThrough = queue.consumed();
+                    // Wait for the first line, then take whatever else is available
+                    batch.add(takeLine());
+                    collectBatch(batch);
+
+                    for (QueuedLine line : batch) {
+                        // Once encoded the line is no longer needed and can be reused
+                        encode(line);
+                        if (batchEncoder.length() >= batchBytes) {
+                            flushBatch();
                         }
                     }
+                    batch.clear();
+                    flushBatch();
                 }
             } catch (InterruptedException e) {
                 // We got interrupted, stop
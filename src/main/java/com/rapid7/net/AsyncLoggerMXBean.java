@@ -0,0 +1,141 @@
+package com.rapid7.net;
+
+import java.util.Map;
+
+/**
+ * Statistics of an {@link AsyncLogger}, registered with the platform MBean server under
+ * {@code com.rapid7.net:type=AsyncLogger,id=<n>}.
+ * <p>
+ * Loggers sharing their connection report the statistics of the shared sender, apart
+ * from the truncated lines.
+ */
+public interface AsyncLoggerMXBean {
+
+    /**
+     * Where the logger is in its lifecycle: NEW, STARTING, RUNNING, DISABLED by an invalid configuration, or CLOSED.
+     */
+    String getState();
+
+    /**
+     * Number of lines, or parts of split lines, handed to the queue, including those later dropped or spilled.
+     */
+    long getEnqueuedLines();
+
+    /**
+     * Number of lines dropped because the queue, byte budget or spill journal was full.
+     */
+    long getDroppedLines();
+
+    /**
+     * Number of lines cut short by the split policy.
+     */
+    long getTruncatedLines();
+
+    /**
+     * Number of lines written to the spill journal.
+     */
+    long getSpilledLines();
+
+    /**
+     * Whether new lines currently go to the spill journal.
+     */
+    boolean isSpilling();
+
+    /**
+     * Number of lines waiting in the queues.
+     */
+    int getQueueSize();
+
+    /**
+     * Maximum number of lines held in the queues.
+     */
+    int getQueueCapacity();
+
+    /**
+     * Estimated memory held by the queued lines, in bytes.
+     */
+    long getQueuedBytes();
+
+    /**
+     * Number of lines waiting in the queue of each connection of the shared sender pool, by connection name,
+     * empty unless the logger sends through the pool.
+     */
+    Map<String, Integer> getSenderPoolBacklog();
+
+    /**
+     * Number of connections sending the lines.
+     */
+    int getConnections();
+
+    /**
+     * Number of bytes written to the connections.
+     */
+    long getBytesWritten();
+
+    /**
+     * Number of writes to the connections, each holding a batch of lines.
+     */
+    long getBatchesWritten();
+
+    /**
+     * Number of attempts to open a connection, the first ones included.
+     */
+    long getConnectAttempts();
+
+    /**
+     * Number of writes aborted for taking longer than the write timeout, each followed by a reconnection.
+     */
+    long getStalledWrites();
+
+    /**
+     * Total time connections have spent waiting to be opened, in milliseconds.
+     */
+    long getDisconnectedMillis();
+
+    /**
+     * Longest duration of each bucket of the latency histograms, in microseconds.
+     */
+    long[] getLatencyBucketMicros();
+
+    /**
+     * Number of writes in each bucket of {@link #getLatencyBucketMicros()}.
+     */
+    long[] getWriteLatencyHistogram();
+
+    /**
+     * Median write time in microseconds, as the upper bound of its histogram bucket.
+     */
+    long getWriteLatencyP50Micros();
+
+    /**
+     * 99th percentile of the write time in microseconds, as the upper bound of its histogram bucket.
+     */
+    long getWriteLatencyP99Micros();
+
+    /**
+     * Number of lines in each bucket of {@link #getLatencyBucketMicros()} by the time they
+     * spent between being queued and being handed to the connection.
+     * Measured with a clock of about a millisecond resolution.
+     */
+    long[] getWireLatencyHistogram();
+
+    /**
+     * Median time from queue to connection in microseconds.
+     */
+    long getWireLatencyP50Micros();
+
+    /**
+     * 99th percentile of the time from queue to connection in microseconds.
+     */
+    long getWireLatencyP99Micros();
+
+    /**
+     * 99.9th percentile of the time from queue to connection in microseconds.
+     */
+    long getWireLatencyP999Micros();
+
+    /**
+     * Longest time from queue to connection in microseconds.
+     */
+    long getWireLatencyMaxMicros();
+}
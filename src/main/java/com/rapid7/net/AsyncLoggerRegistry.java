@@ -0,0 +1,91 @@
+package com.rapid7.net;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide registry of the {@link AsyncLogger}s sending on behalf of loggers that
+ * share their connection, one per destination.
+ * <p>
+ * Loggers for the same endpoint and connection settings, whatever their token, queue their
+ * lines with the shared sender, each line carrying its own token and prefix. The shared
+ * sender is created with the queue settings of the first logger and closed once the last
+ * one is closed. It sends nothing of its own, each logger queues its library identifier
+ * once its configuration is found valid, and has no MBean, each logger registers one.
+ */
+final class AsyncLoggerRegistry {
+
+    private static final Map<String, Entry> SENDERS = new HashMap<>();
+
+    private AsyncLoggerRegistry() {}
+
+    /**
+     * Returns the key of the destination of the configuration.
+     *
+     * @return destination key, {@code null} if the logger does not share its connection
+     */
+    static String keyOf(LoggerConfiguration configuration) {
+        // HTTP PUT sends a single log per connection
+        if (!configuration.isSharedConnection() || configuration.isHttpPut()) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder()
+                .append(configuration.getTransport())
+                .append('|').append(configuration.isSsl())
+                .append('|').append(configuration.isUseDataHub())
+                .append('|').append(configuration.getDataHubAddr())
+                .append('|').append(configuration.getDataHubPort())
+                .append('|').append(configuration.getRegion())
+                .append('|').append(Arrays.toString(configuration.getTlsProtocols()))
+                .append('|').append(Arrays.toString(configuration.getTlsCipherSuites()))
+                .append('|').append(configuration.getTlsSessionCacheSize())
+                .append('|').append(configuration.getSendBufferBytes())
+                .append('|').append(configuration.isTcpNoDelay())
+                .append('|').append(configuration.isKeepAlive())
+                .append('|').append(configuration.getTrafficClass())
+                .append('|').append(configuration.getConnectTimeoutMs())
+                .append('|').append(configuration.getWriteTimeoutMs());
+        if (configuration.getTransport() == Transport.HTTP) {
+            // The token is part of the URL
+            key.append('|').append(configuration.getToken());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the sender for the destination, creating it if needed, and counts one more user.
+     */
+    static synchronized AsyncLogger acquire(String key, LoggerConfiguration configuration) {
+        Entry entry = SENDERS.get(key);
+        if (entry == null) {
+            entry = new Entry(AsyncLogger.sharedSender(configuration));
+            SENDERS.put(key, entry);
+        }
+        entry.references++;
+        return entry.sender;
+    }
+
+    /**
+     * Counts one user less, closing the sender once it has none left.
+     */
+    static synchronized void release(String key, AsyncLogger sender) {
+        Entry entry = SENDERS.get(key);
+        if (entry == null || entry.sender != sender) {
+            return;
+        }
+        if (--entry.references == 0) {
+            SENDERS.remove(key);
+            sender.close();
+        }
+    }
+
+    private static final class Entry {
+        final AsyncLogger sender;
+        int references;
+
+        Entry(AsyncLogger sender) {
+            this.sender = sender;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.rapid7.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Recycles the direct buffers holding data waiting to be written by NIO connections.
+ * Direct buffers are expensive to allocate and are only freed by the garbage collector,
+ * so they are shared by all connections rather than allocated per write.
+ */
+final class DirectBufferPool {
+
+    /**
+     * Size of every buffer, enough for several TLS records.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Upper bound on the number of idle buffers kept in the pool.
+     */
+    private static final int MAX_POOL_SIZE = 64;
+
+    static final DirectBufferPool SHARED = new DirectBufferPool(MAX_POOL_SIZE);
+
+    private final RingBufferQueue<ByteBuffer> free;
+
+    DirectBufferPool(int size) {
+        this.free = new RingBufferQueue<>(size, WaitStrategy.BLOCKING);
+    }
+
+    /**
+     * Returns an empty buffer of {@link #BUFFER_SIZE} bytes, ready to be written to.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    void release(ByteBuffer buffer) {
+        buffer.clear();
+        // If the pool is full the buffer is simply left to the garbage collector
+        free.offer(buffer);
+    }
+}
@@ -0,0 +1,392 @@
+package com.rapid7.net;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+import java.util.zip.GZIPOutputStream;
+
+import static com.rapid7.Constants.WEBHOOK_ENDPOINT_TEMPLATE;
+
+/**
+ * Client sending batches of lines to InsightOPS as HTTP POST requests.
+ * <p>
+ * Every write becomes one request, optionally gzip compressed, sent by a pool of
+ * {@code maxInFlight} threads over persistent HTTP/1.1 connections, which
+ * {@link HttpURLConnection} keeps alive between requests. A write only waits once
+ * {@code maxInFlight} requests are in flight. Requests failing with an I/O error,
+ * a 5xx or a 429 status are retried with exponential backoff.
+ * <p>
+ * As writes return before their lines are sent, {@link #awaitDelivered(long)} tells when
+ * the requests have completed, and the lines of requests given up on are reported to the
+ * {@link #setDroppedLinesListener(IntConsumer) listener}.
+ */
+public class HttpBulkInsightOpsClient extends InsightOpsClient {
+
+    /**
+     * Path of the endpoint taking lines as they are, one per line.
+     */
+    private static final String INGEST_PATH = "/v1/noformat/%s";
+    /**
+     * Attempts made to send a batch before it is dropped.
+     */
+    static final int MAX_ATTEMPTS = 8;
+    /**
+     * Minimal delay between attempts to send a batch in milliseconds.
+     */
+    private static final int MIN_RETRY_DELAY = 100;
+    /**
+     * Maximal delay between attempts to send a batch in milliseconds.
+     */
+    private static final int MAX_RETRY_DELAY = 10000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    /**
+     * How long {@link #awaitDelivered(long)} waits between checks, in nanoseconds.
+     */
+    private static final long DELIVERY_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String token;
+    private final boolean gzip;
+    private final int maxInFlight;
+    private final Random random = new Random();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong sentBatches = new AtomicLong();
+    /**
+     * Sequence numbers of the requests not completed yet.
+     */
+    private final ConcurrentSkipListSet<Long> pending = new ConcurrentSkipListSet<>();
+    /**
+     * Sequence number of the next request, only written by the writing thread.
+     */
+    private volatile long nextSequence;
+    private volatile IntConsumer droppedLinesListener = lines -> {};
+
+    private URL url;
+    /**
+     * Factory of the configured TLS context, {@code null} for the default one. Kept for
+     * the life of the client, as connections are only kept alive for the same factory.
+     */
+    private SSLSocketFactory sslSocketFactory;
+    private volatile ExecutorService senders;
+    private Semaphore inFlight;
+
+    public HttpBulkInsightOpsClient(boolean ssl, boolean isUsingDataHub, String server, int port, String region,
+                                    String token, boolean gzip, int maxInFlight) {
+        super(false, ssl, isUsingDataHub, Utils.isNullOrEmpty(server) ? String.format(WEBHOOK_ENDPOINT_TEMPLATE, region) : server,
+                port, region);
+        this.token = token;
+        this.gzip = gzip;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (senders != null) {
+            return;
+        }
+        url = new URL(isSsl() ? "https" : "http", getAddress(), getPort(), String.format(INGEST_PATH, token));
+        if (isSsl() && getTls() != TlsSettings.DEFAULT) {
+            sslSocketFactory = getTls().getContext().getSocketFactory();
+        }
+        inFlight = new Semaphore(maxInFlight);
+        AtomicInteger threads = new AtomicInteger();
+        senders = new ThreadPoolExecutor(maxInFlight, maxInFlight, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "InsightOps HTTP sender " + threads.getAndIncrement());
+            // Don't block shut down
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets what is told the number of lines dropped with a request that could not be sent.
+     */
+    void setDroppedLinesListener(IntConsumer droppedLinesListener) {
+        this.droppedLinesListener = droppedLinesListener;
+    }
+
+    /**
+     * Queues the lines as a single request. The data is copied, or compressed,
+     * before this method returns.
+     */
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        final ExecutorService pool = senders;
+        if (pool == null) {
+            throw new IOException();
+        }
+        final Request request = new Request(gzip ? compress(buffer, offset, length) : copy(buffer, offset, length),
+                countLines(buffer, offset, length));
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for requests in flight");
+        }
+        final long sequence = nextSequence;
+        pending.add(sequence);
+        // Published once pending, see awaitDelivered
+        nextSequence = sequence + 1;
+        request.sequence = sequence;
+        try {
+            pool.execute(request);
+        } catch (RejectedExecutionException e) {
+            // Closed in the meantime
+            pending.remove(sequence);
+            inFlight.release();
+            throw new IOException("Client closed", e);
+        }
+    }
+
+    /**
+     * Writes wait while {@code maxInFlight} requests are in flight.
+     */
+    @Override
+    boolean wouldWait(int length) {
+        final Semaphore permits = inFlight;
+        return permits != null && permits.availablePermits() == 0;
+    }
+
+    /**
+     * Waits until the requests of the writes made so far have completed, either sent or
+     * given up on.
+     *
+     * @param deadline {@link System#nanoTime()} after which to stop waiting
+     * @return true if they completed in time
+     */
+    boolean awaitDelivered(long deadline) {
+        final long target = nextSequence;
+        while (true) {
+            final Long oldest = pending.ceiling(Long.MIN_VALUE);
+            if (oldest == null || oldest >= target) {
+                return true;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(DELIVERY_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Aborts the requests in flight right away, dropping their lines.
+     */
+    @Override
+    public void close() {
+        close(0);
+    }
+
+    /**
+     * Lets the requests in flight complete within the timeout, then aborts the others,
+     * dropping their lines.
+     *
+     * @param timeoutMs how long to wait for requests in flight, in milliseconds
+     */
+    public void close(long timeoutMs) {
+        final ExecutorService pool = senders;
+        if (pool == null) {
+            return;
+        }
+        senders = null;
+        pool.shutdown();
+        // Sender threads are stopped by interrupting them, and still get to wait
+        boolean interrupted = Thread.interrupted();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            try {
+                pool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (Runnable waiting : pool.shutdownNow()) {
+            Request request = (Request) waiting;
+            pending.remove(request.sequence);
+            droppedLinesListener.accept(request.lines);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Number of batches accepted by the server.
+     */
+    long getSentBatches() {
+        return sentBatches.get();
+    }
+
+    /**
+     * Number of batches dropped after being refused or failing too many times.
+     */
+    long getFailedBatches() {
+        return failedBatches.get();
+    }
+
+    /**
+     * Posts the body, retrying until it is sent or given up on.
+     *
+     * @return true if the server accepted it
+     */
+    private boolean send(byte[] body) {
+        int delay = MIN_RETRY_DELAY;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            long retryAfter = -1;
+            try {
+                HttpURLConnection response = post(body);
+                int status = response.getResponseCode();
+                if (status < 300) {
+                    sentBatches.incrementAndGet();
+                    return true;
+                }
+                if (status != 429 && status < 500) {
+                    // The request itself is wrong, sending it again won't help
+                    break;
+                }
+                retryAfter = retryAfterMs(response);
+            } catch (IOException e) {
+                // Retried below
+            }
+            if (attempt == MAX_ATTEMPTS) {
+                break;
+            }
+            try {
+                Thread.sleep(retryAfter >= 0 ? retryAfter : delay + random.nextInt(delay));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+        }
+        failedBatches.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Reads the delay asked for by the server in seconds, capped to the maximal retry delay.
+     *
+     * @return delay in milliseconds, -1 if the server did not ask for one
+     */
+    private static long retryAfterMs(HttpURLConnection response) {
+        String retryAfter = response.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.min(TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())), MAX_RETRY_DELAY);
+        } catch (NumberFormatException e) {
+            // An HTTP date, use our own backoff
+            return -1;
+        }
+    }
+
+    /**
+     * Sends the request and reads the whole response.
+     *
+     * @return the completed request
+     */
+    private HttpURLConnection post(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (sslSocketFactory != null && connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+        }
+        connection.setConnectTimeout(getConnectTimeoutMs());
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+        if (gzip) {
+            connection.setRequestProperty("Content-Encoding", "gzip");
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        int status = connection.getResponseCode();
+        // Reading the whole response lets the connection be reused for the next request
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try {
+                byte[] discard = new byte[512];
+                while (in.read(discard) >= 0) {
+                    // Nothing to do
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Counts the lines of a batch, each ended by a newline as line breaks within lines
+     * have been replaced.
+     */
+    private static int countLines(byte[] buffer, int offset, int length) {
+        int lines = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (buffer[i] == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static byte[] copy(byte[] buffer, int offset, int length) {
+        byte[] body = new byte[length];
+        System.arraycopy(buffer, offset, body, 0, length);
+        return body;
+    }
+
+    private static byte[] compress(byte[] buffer, int offset, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, length / 4));
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(buffer, offset, length);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A batch waiting to be sent, or being sent, by the pool.
+     */
+    private final class Request implements Runnable {
+        final byte[] body;
+        final int lines;
+        long sequence;
+
+        Request(byte[] body, int lines) {
+            this.body = body;
+            this.lines = lines;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!send(body)) {
+                    droppedLinesListener.accept(lines);
+                }
+            } finally {
+                pending.remove(sequence);
+                inFlight.release();
+            }
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package com.rapid7.net;
 
+import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 
 import static com.rapid7.Constants.DATA_ENDPOINT_TEMPLATE;
@@ -27,20 +28,22 @@ public class InsightOpsClient {
      */
     private static final int IOPS_SSL_PORT = 443;
 
-    final SSLSocketFactory ssl_factory;
     private boolean ssl_choice;
     private boolean http_choice = false;
-    private Socket socket;
+    private volatile Socket socket;
     private OutputStream stream;
     private int port;
     private String dataEndpoint;
+    private int connectTimeoutMs = LoggerConfiguration.DEFAULT_CONNECT_TIMEOUT_MS;
+    private long writeTimeoutMs = LoggerConfiguration.DEFAULT_WRITE_TIMEOUT_MS;
+    private TlsSettings tls = TlsSettings.DEFAULT;
+    private SocketSettings socketSettings = SocketSettings.DEFAULT;
 
     public InsightOpsClient(boolean httpPut, boolean ssl, boolean isUsingDataHub, String server, int port, String region) {
         if (isUsingDataHub) {
-            ssl_factory = null; // DataHub does not support input over SSL for now,
+            // DataHub does not support input over SSL for now,
             this.ssl_choice = false; // so SSL flag is ignored
         } else {
-            ssl_factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
             ssl_choice = ssl;
             http_choice = httpPut;
         }
@@ -71,19 +74,83 @@ public class InsightOpsClient {
         return dataEndpoint;
     }
 
+    /**
+     * Tells whether the connection is secured with SSL/TLS, which is never the case with DataHub.
+     */
+    boolean isSsl() {
+        return ssl_choice;
+    }
+
+    /**
+     * Sets how long opening a connection and writing to it may take, 0 to wait indefinitely.
+     *
+     * @param connectTimeoutMs connect timeout, TLS handshake included, in milliseconds
+     * @param writeTimeoutMs   write timeout in milliseconds
+     */
+    void setTimeouts(int connectTimeoutMs, long writeTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.writeTimeoutMs = writeTimeoutMs;
+    }
+
+    int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    long getWriteTimeoutMs() {
+        return writeTimeoutMs;
+    }
+
+    /**
+     * Sets the context, protocols and cipher suites of SSL/TLS connections.
+     */
+    void setTls(TlsSettings tls) {
+        this.tls = tls;
+    }
+
+    TlsSettings getTls() {
+        return tls;
+    }
+
+    /**
+     * Sets the TCP options of the connections.
+     */
+    void setSocketSettings(SocketSettings socketSettings) {
+        this.socketSettings = socketSettings;
+    }
+
+    SocketSettings getSocketSettings() {
+        return socketSettings;
+    }
+
+    //  VisibleForTesting
+    SSLSession getTlsSession() {
+        final Socket s = this.socket;
+        return s instanceof SSLSocket ? ((SSLSocket) s).getSession() : null;
+    }
+
     public void connect() throws IOException {
-        if (ssl_choice) {
-            if (http_choice) {
-                SSLSocket s = (SSLSocket) ssl_factory.createSocket(getAddress(), getPort());
-                s.setTcpNoDelay(true);
-                s.startHandshake();
-                socket = s;
-            } else {
-                socket = SSLSocketFactory.getDefault().createSocket(getAddress(), getPort());
+        final long start = System.nanoTime();
+        long handshakeNanos = 0;
+        Socket s = new Socket();
+        try {
+            socketSettings.apply(s);
+            s.connect(new InetSocketAddress(getAddress(), getPort()), connectTimeoutMs);
+            if (ssl_choice) {
+                SSLSocket sslSocket = tls.createSocket(s, getAddress(), getPort());
+                s = sslSocket;
+                // Handshake now rather than on the first write; reads time out, so does the handshake
+                sslSocket.setSoTimeout(connectTimeoutMs);
+                final long handshakeStart = System.nanoTime();
+                sslSocket.startHandshake();
+                handshakeNanos = System.nanoTime() - handshakeStart;
+                sslSocket.setSoTimeout(0);
             }
-        } else {
-            socket = new Socket(getAddress(), getPort());
+        } catch (IOException e) {
+            s.close();
+            throw e;
         }
+        socket = s;
+        PipelineEvents.connected(getAddress(), getPort(), System.nanoTime() - start - handshakeNanos, handshakeNanos);
 
         this.stream = socket.getOutputStream();
     }
@@ -96,11 +163,24 @@ public class InsightOpsClient {
         this.stream.flush();
     }
 
+    /**
+     * Whether writing {@code length} bytes now would wait for the peer to take data.
+     * A blocking socket cannot tell, its writes are instead bounded by the write timeout.
+     */
+    boolean wouldWait(int length) {
+        return false;
+    }
+
+    /**
+     * Closes the connection, which may be called by another thread to abort a write
+     * blocked on it.
+     */
     public void close() {
         try {
-            if (this.socket != null) {
-                this.socket.close();
+            final Socket s = this.socket;
+            if (s != null) {
                 this.socket = null;
+                s.close();
             }
         } catch (Exception ignored) {}
     }
@@ -0,0 +1,126 @@
+package com.rapid7.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of durations in microseconds.
+ * <p>
+ * Durations below {@link #SUB_BUCKETS} microseconds get a bucket each; above that every
+ * power of two range is split into {@link #SUB_BUCKETS} equal buckets, which keeps the
+ * error of a reported duration within 12.5%. The last bucket counts everything from about
+ * 19 hours on. Recording is lock-free: one atomic increment, plus a compare-and-set when
+ * the maximum grows.
+ */
+final class LatencyHistogram {
+
+    /**
+     * Number of linear buckets in each power of two range.
+     */
+    static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    /**
+     * Highest power of two range with its own buckets.
+     */
+    private static final int MAX_EXPONENT = 36;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private static final long[] UPPER_BOUNDS_MICROS = new long[BUCKETS];
+
+    static {
+        for (int i = 0; i < BUCKETS; i++) {
+            UPPER_BOUNDS_MICROS[i] = upperBound(i);
+        }
+        UPPER_BOUNDS_MICROS[BUCKETS - 1] = Long.MAX_VALUE;
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Counts one duration.
+     *
+     * @param nanos duration in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketOf(micros));
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BITS);
+        return (SUB_BUCKETS + sub) * width + width - 1;
+    }
+
+    /**
+     * Number of durations counted in each bucket.
+     */
+    long[] counts() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Longest duration of each bucket in microseconds.
+     */
+    static long[] upperBoundsMicros() {
+        return UPPER_BOUNDS_MICROS.clone();
+    }
+
+    /**
+     * Longest duration counted, in microseconds.
+     */
+    long maxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * Upper bound of the bucket holding the percentile, capped to the longest duration counted.
+     *
+     * @param percentile between 0 and 100
+     * @return duration in microseconds, 0 if nothing was counted
+     */
+    long percentileMicros(double percentile) {
+        long[] snapshot = counts();
+        long total = 0;
+        for (long count : snapshot) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(UPPER_BOUNDS_MICROS[i], maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+}
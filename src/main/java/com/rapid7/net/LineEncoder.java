@@ -0,0 +1,138 @@
+package com.rapid7.net;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Assembles queued lines into the byte stream sent to the server: the header (token and
+ * message prefix), the line with its line separators replaced, and a terminating newline.
+ * <p>
+ * Lines are encoded straight into a single reusable buffer, without intermediate Strings or
+ * arrays, so that several lines can be written with one call and the sender thread does not
+ * allocate per line. Not thread-safe.
+ */
+final class LineEncoder {
+
+    /**
+     * Unicode line separator used instead of line breaks to format multi-line events nicely in the UI.
+     */
+    private static final byte[] LINE_SEP_REPLACEMENT = "\u2028".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] header;
+    private final String lineSeparator;
+    private final byte[] lineSeparatorBytes;
+    private byte[] buffer;
+    private int length;
+
+    /**
+     * @param header        bytes written before lines that do not carry their own header, may be empty
+     * @param lineSeparator line separator to replace within lines
+     * @param capacity      initial buffer capacity in bytes
+     */
+    LineEncoder(byte[] header, String lineSeparator, int capacity) {
+        this.header = header;
+        this.lineSeparator = lineSeparator;
+        this.lineSeparatorBytes = lineSeparator.getBytes(StandardCharsets.UTF_8);
+        this.buffer = new byte[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Appends the line with its header and terminating newline.
+     */
+    void append(QueuedLine line) {
+        final byte[] lineHeader = line.header != null ? line.header : header;
+        ensureCapacity(lineHeader.length);
+        System.arraycopy(lineHeader, 0, buffer, length, lineHeader.length);
+        length += lineHeader.length;
+        if (line.marker != null) {
+            ensureCapacity(line.marker.length() * 3);
+            length = Utf8.encode(line.marker, 0, line.marker.length(), buffer, length);
+        }
+        if (line.text != null) {
+            appendReplacingSeparators(line.text, line.textStart, line.textEnd);
+        } else {
+            appendReplacingSeparators(line.bytes, line.length);
+        }
+        ensureCapacity(1);
+        buffer[length++] = '\n';
+    }
+
+    byte[] array() {
+        return buffer;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void reset() {
+        length = 0;
+    }
+
+    private void appendReplacingSeparators(String text, int start, int end) {
+        // A char never takes more than three bytes, a surrogate pair takes four for two chars,
+        // and the replacement is no longer than three bytes per separator char
+        ensureCapacity((end - start) * 3);
+        int from = start;
+        int separator;
+        while ((separator = indexOfSeparator(text, from, end)) >= 0) {
+            length = Utf8.encode(text, from, separator, buffer, length);
+            System.arraycopy(LINE_SEP_REPLACEMENT, 0, buffer, length, LINE_SEP_REPLACEMENT.length);
+            length += LINE_SEP_REPLACEMENT.length;
+            from = separator + lineSeparator.length();
+        }
+        length = Utf8.encode(text, from, end, buffer, length);
+    }
+
+    /**
+     * Like {@link String#indexOf(String, int)}, but does not look past {@code end}
+     * so that encoding a part of a long line only scans that part.
+     */
+    private int indexOfSeparator(String text, int from, int end) {
+        char first = lineSeparator.charAt(0);
+        for (int i = from; i <= end - lineSeparator.length(); i++) {
+            if (text.charAt(i) == first && text.startsWith(lineSeparator, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void appendReplacingSeparators(byte[] data, int dataLength) {
+        int separators = 0;
+        for (int i = 0; i < dataLength; i++) {
+            if (startsWithSeparator(data, i, dataLength)) {
+                separators++;
+            }
+        }
+        ensureCapacity(dataLength + separators * Math.max(0, LINE_SEP_REPLACEMENT.length - lineSeparatorBytes.length));
+        int i = 0;
+        while (i < dataLength) {
+            if (startsWithSeparator(data, i, dataLength)) {
+                System.arraycopy(LINE_SEP_REPLACEMENT, 0, buffer, length, LINE_SEP_REPLACEMENT.length);
+                length += LINE_SEP_REPLACEMENT.length;
+                i += lineSeparatorBytes.length;
+            } else {
+                buffer[length++] = data[i++];
+            }
+        }
+    }
+
+    private boolean startsWithSeparator(byte[] data, int offset, int dataLength) {
+        if (data[offset] != lineSeparatorBytes[0] || offset + lineSeparatorBytes.length > dataLength) {
+            return false;
+        }
+        for (int j = 1; j < lineSeparatorBytes.length; j++) {
+            if (data[offset + j] != lineSeparatorBytes[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.rapid7.net;
+
+/**
+ * Recycles {@link QueuedLine} instances and their byte buffers between logging threads and
+ * the sender, so that steady state logging does not allocate per line.
+ */
+final class LinePool {
+
+    /**
+     * Smallest byte buffer handed out, avoids repeatedly growing buffers of short lines.
+     */
+    static final int MIN_BUFFER_SIZE = 256;
+    /**
+     * Largest byte buffer kept in the pool; oversized lines are left to the garbage collector.
+     */
+    static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024;
+    /**
+     * Number of idle lines kept in the pool when batches are smaller. With the retained buffer
+     * size the pool size caps the memory held by idle lines outside of the queue's byte budget.
+     */
+    static final int MIN_POOL_SIZE = 256;
+
+    private final RingBufferQueue<QueuedLine> free;
+
+    /**
+     * @param queueCapacity number of lines the queues hold, more are never idle
+     * @param batchLines    number of lines the senders may release at once, which the pool
+     *                      must take back for the logging threads not to allocate new ones
+     */
+    LinePool(int queueCapacity, int batchLines) {
+        this.free = new RingBufferQueue<>(Math.min(queueCapacity, Math.max(batchLines, MIN_POOL_SIZE)), WaitStrategy.BLOCKING);
+    }
+
+    QueuedLine acquire() {
+        QueuedLine line = free.poll();
+        return line != null ? line : new QueuedLine();
+    }
+
+    void release(QueuedLine line) {
+        line.clear(MAX_RETAINED_BUFFER_SIZE);
+        // If the pool is full the line is simply left to the garbage collector
+        free.offer(line);
+    }
+}
@@ -0,0 +1,104 @@
+package com.rapid7.net;
+
+/**
+ * Finds where oversized lines are cut so that every part fits a byte budget once encoded.
+ * <p>
+ * Cuts are computed on UTF-8 byte counts and never separate a surrogate pair or the bytes
+ * of a multi-byte character. Line breaks are counted with the size of the line separator
+ * replacement they turn into on the wire. Nothing is copied; callers slice the original
+ * line with the returned offsets.
+ */
+final class LineSplitter {
+
+    /**
+     * Encoded size of a line break once replaced by the Unicode line separator.
+     */
+    private static final int LINE_BREAK_BYTES = 3;
+    /**
+     * Bytes reserved in every part for its continuation marker.
+     */
+    static final int MARKER_RESERVE = 48;
+
+    private LineSplitter() {}
+
+    /**
+     * Returns the index after the last character that fits the budget, starting at {@code start}.
+     */
+    static int nextCut(CharSequence s, int start, int end, int budget) {
+        int bytes = 0;
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            int width = 1;
+            int size;
+            if (c < 0x80) {
+                size = c == '\n' ? LINE_BREAK_BYTES : 1;
+            } else if (c < 0x800) {
+                size = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                size = 4;
+                width = 2;
+            } else {
+                size = 3;
+            }
+            if (bytes + size > budget) {
+                break;
+            }
+            bytes += size;
+            i += width;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index after the last byte that fits the budget, starting at {@code start},
+     * moved back to the start of a character if needed.
+     */
+    static int nextCut(byte[] utf8, int start, int end, int budget) {
+        if (end - start <= budget / LINE_BREAK_BYTES) {
+            return end;
+        }
+        int bytes = 0;
+        int i = start;
+        while (i < end) {
+            int size = utf8[i] == '\n' ? LINE_BREAK_BYTES : 1;
+            if (bytes + size > budget) {
+                break;
+            }
+            bytes += size;
+            i++;
+        }
+        return i < end ? Utf8.codePointBoundary(utf8, start, i) : i;
+    }
+
+    /**
+     * Counts the parts {@link #nextCut(CharSequence, int, int, int)} cuts the line into.
+     */
+    static int countParts(CharSequence s, int start, int end, int budget) {
+        int parts = 0;
+        while (start < end) {
+            start = nextCut(s, start, end, budget);
+            parts++;
+        }
+        return Math.max(parts, 1);
+    }
+
+    /**
+     * Counts the parts {@link #nextCut(byte[], int, int, int)} cuts the line into.
+     */
+    static int countParts(byte[] utf8, int start, int end, int budget) {
+        int parts = 0;
+        while (start < end) {
+            start = nextCut(utf8, start, end, budget);
+            parts++;
+        }
+        return Math.max(parts, 1);
+    }
+
+    /**
+     * Builds the marker sent in front of a part, e.g. {@code "[1f3a 2/5] "}.
+     */
+    static String marker(String eventId, int part, int parts) {
+        return "[" + eventId + " " + part + "/" + parts + "] ";
+    }
+}
@@ -0,0 +1,393 @@
+package com.rapid7.net;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Command line load generator: logs lines of random sizes through an {@link AsyncLogger}
+ * from a number of threads, at a given rate and for a given time, then reports the
+ * throughput achieved, the lines dropped, latencies and garbage collections.
+ * <p>
+ * Run it with {@code java -jar r7insight_java.jar --token=... --region=...}, see
+ * {@link #USAGE} for all options. With a rate, the time taken to queue a line is measured
+ * from when the line was due rather than from when it was logged, so that a stalled
+ * producer does not hide the lines it should have logged meanwhile.
+ */
+public final class LoadGenerator {
+
+    static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java -jar r7insight_java.jar [--option=value ...]",
+            "  --mode=tls|tcp|put|datahub  how lines are sent (default tls)",
+            "  --transport=SOCKET|NIO|HTTP client sending the lines (default SOCKET)",
+            "  --host=HOST --port=PORT     endpoint, instead of the one of the region or DataHub",
+            "  --token=TOKEN               log token, for tls and tcp",
+            "  --key=KEY --location=LOG    account key and log location, for put",
+            "  --region=REGION             region of the endpoint (default eu)",
+            "  --threads=N                 threads logging lines (default 1)",
+            "  --rate=N                    lines per second over all threads, 0 for as fast as possible (default 0)",
+            "  --duration=SECONDS          how long to log for (default 10)",
+            "  --size=fixed:N|uniform:MIN:MAX|exponential:MEAN",
+            "                              length of the lines in chars (default fixed:200)",
+            "  --queueCapacity=N --overflowPolicy=DROP_OLDEST|DROP_NEWEST|BLOCK",
+            "  --connections=N --senderPool=true|false",
+            "  --closeTimeoutMs=N          how long to wait for queued lines at the end (default 10000)");
+
+    private static final int MESSAGES = 4096;
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ";
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options.help) {
+            System.out.println(USAGE);
+            return;
+        }
+        run(options).print(System.out);
+    }
+
+    /**
+     * Logs lines as configured and returns what was achieved.
+     */
+    static Report run(Options options) throws InterruptedException {
+        final String[] messages = options.size.messages(MESSAGES, new Random(42));
+        final LatencyHistogram enqueueLatency = new LatencyHistogram();
+        final LongAdder generated = new LongAdder();
+        final Map<String, long[]> gcBefore = gcSnapshot();
+
+        final AsyncLogger async = new AsyncLogger(options.configuration());
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        final long intervalNanos = options.rate > 0 ? TimeUnit.SECONDS.toNanos(options.threads) / options.rate : 0;
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < options.threads; t++) {
+            final int first = t * (MESSAGES / options.threads);
+            Thread producer = new Thread(() -> {
+                int i = first;
+                long due = start;
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    if (intervalNanos > 0) {
+                        if (now < due) {
+                            LockSupport.parkNanos(due - now);
+                            continue;
+                        }
+                    } else {
+                        due = now;
+                    }
+                    async.addLineToQueue(messages[i++ & (MESSAGES - 1)]);
+                    enqueueLatency.record(System.nanoTime() - due);
+                    generated.increment();
+                    due += intervalNanos;
+                }
+            }, "Load generator " + t);
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        final long produced = System.nanoTime();
+        final boolean drained = async.flush(options.closeTimeoutMs);
+        final long flushed = System.nanoTime();
+
+        Report report = new Report();
+        report.produceNanos = produced - start;
+        report.drainNanos = flushed - produced;
+        report.drained = drained;
+        report.generated = generated.sum();
+        report.written = sum(async.getWireLatencyHistogram());
+        report.dropped = async.getDroppedLines();
+        report.truncated = async.getTruncatedLines();
+        report.unsent = async.getQueueSize();
+        report.bytesWritten = async.getBytesWritten();
+        report.batchesWritten = async.getBatchesWritten();
+        report.connectAttempts = async.getConnectAttempts();
+        report.enqueueLatency = enqueueLatency;
+        report.wireLatencyMicros = new long[]{async.getWireLatencyP50Micros(), async.getWireLatencyP99Micros(),
+                async.getWireLatencyP999Micros(), async.getWireLatencyMaxMicros()};
+        async.close(0);
+        Map<String, long[]> gcAfter = gcSnapshot();
+        for (Map.Entry<String, long[]> gc : gcAfter.entrySet()) {
+            long[] before = gcBefore.getOrDefault(gc.getKey(), new long[2]);
+            report.gc.put(gc.getKey(), new long[]{gc.getValue()[0] - before[0], gc.getValue()[1] - before[1]});
+        }
+        return report;
+    }
+
+    private static long sum(long[] counts) {
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    /**
+     * Collection count and time in milliseconds, by collector.
+     */
+    private static Map<String, long[]> gcSnapshot() {
+        Map<String, long[]> snapshot = new HashMap<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            snapshot.put(gc.getName(), new long[]{gc.getCollectionCount(), gc.getCollectionTime()});
+        }
+        return snapshot;
+    }
+
+    /**
+     * Options given on the command line.
+     */
+    static final class Options {
+        String mode = "tls";
+        Transport transport = Transport.SOCKET;
+        String host;
+        int port;
+        String token = "";
+        String key = "";
+        String location = "";
+        String region = "eu";
+        int threads = 1;
+        long rate;
+        long durationSeconds = 10;
+        SizeDistribution size = SizeDistribution.parse("fixed:200");
+        int queueCapacity = LoggerConfiguration.DEFAULT_QUEUE_CAPACITY;
+        OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        int connections = 1;
+        boolean senderPool;
+        long closeTimeoutMs = 10000;
+        boolean help;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (arg.equals("--help") || arg.equals("-h")) {
+                    options.help = true;
+                    continue;
+                }
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Expected --option=value but got " + arg);
+                }
+                options.set(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+            if (options.help) {
+                return options;
+            }
+            if (options.threads < 1 || options.durationSeconds < 1 || options.rate < 0) {
+                throw new IllegalArgumentException("threads and duration must be positive, rate not negative");
+            }
+            if (options.mode.equals("put") ? options.key.isEmpty() || options.location.isEmpty() : options.token.isEmpty()) {
+                throw new IllegalArgumentException(options.mode.equals("put") ? "--key and --location are required" : "--token is required");
+            }
+            return options;
+        }
+
+        private void set(String name, String value) {
+            try {
+                switch (name) {
+                    case "mode":
+                        if (!value.matches("tls|tcp|put|datahub")) {
+                            throw new IllegalArgumentException("Unknown mode " + value);
+                        }
+                        mode = value;
+                        break;
+                    case "transport":
+                        transport = Transport.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "host":
+                        host = value;
+                        break;
+                    case "port":
+                        port = Integer.parseInt(value);
+                        break;
+                    case "token":
+                        token = value;
+                        break;
+                    case "key":
+                        key = value;
+                        break;
+                    case "location":
+                        location = value;
+                        break;
+                    case "region":
+                        region = value;
+                        break;
+                    case "threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "rate":
+                        rate = Long.parseLong(value);
+                        break;
+                    case "duration":
+                        durationSeconds = Long.parseLong(value);
+                        break;
+                    case "size":
+                        size = SizeDistribution.parse(value);
+                        break;
+                    case "queueCapacity":
+                        queueCapacity = Integer.parseInt(value);
+                        break;
+                    case "overflowPolicy":
+                        overflowPolicy = OverflowPolicy.valueOf(value.toUpperCase(Locale.ROOT));
+                        break;
+                    case "connections":
+                        connections = Integer.parseInt(value);
+                        break;
+                    case "senderPool":
+                        senderPool = Boolean.parseBoolean(value);
+                        break;
+                    case "closeTimeoutMs":
+                        closeTimeoutMs = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option --" + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for --" + name + ": " + value);
+            }
+        }
+
+        LoggerConfiguration configuration() {
+            return new LoggerConfiguration.Builder()
+                    .useSSL(mode.equals("tls"))
+                    .useHttpPut(mode.equals("put"))
+                    .useDataHub(mode.equals("datahub"))
+                    .toServerAddress(host)
+                    .toServerPort(port)
+                    .useToken(token)
+                    .useAccountKey(key)
+                    .httpPutLocation(location)
+                    .inRegion(region)
+                    .withTransport(transport)
+                    .withQueueCapacity(queueCapacity)
+                    .withOverflowPolicy(overflowPolicy)
+                    .withConnections(connections)
+                    .useSenderPool(senderPool)
+                    .useJmx(false)
+                    .build();
+        }
+    }
+
+    /**
+     * Distribution of the length of the lines logged.
+     */
+    static final class SizeDistribution {
+        private final String kind;
+        private final int a;
+        private final int b;
+
+        private SizeDistribution(String kind, int a, int b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        static SizeDistribution parse(String spec) {
+            String[] parts = spec.split(":");
+            try {
+                if (parts[0].equals("fixed") && parts.length == 2) {
+                    return new SizeDistribution("fixed", Integer.parseInt(parts[1]), 0);
+                }
+                if (parts[0].equals("uniform") && parts.length == 3) {
+                    int min = Integer.parseInt(parts[1]);
+                    int max = Integer.parseInt(parts[2]);
+                    if (min <= max) {
+                        return new SizeDistribution("uniform", min, max);
+                    }
+                }
+                if (parts[0].equals("exponential") && parts.length == 2) {
+                    return new SizeDistribution("exponential", Integer.parseInt(parts[1]), 0);
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IllegalArgumentException("Invalid size distribution " + spec);
+        }
+
+        int next(Random random) {
+            switch (kind) {
+                case "uniform":
+                    return a + random.nextInt(b - a + 1);
+                case "exponential":
+                    return (int) Math.min(Integer.MAX_VALUE / 2, Math.round(-a * Math.log(1 - random.nextDouble())));
+                default:
+                    return a;
+            }
+        }
+
+        /**
+         * Builds lines ahead of time, so that the producers only measure logging them.
+         */
+        String[] messages(int count, Random random) {
+            String[] messages = new String[count];
+            for (int i = 0; i < count; i++) {
+                char[] chars = new char[Math.max(0, next(random))];
+                for (int c = 0; c < chars.length; c++) {
+                    chars[c] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+                }
+                messages[i] = new String(chars);
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * What a run achieved.
+     */
+    static final class Report {
+        long produceNanos;
+        long drainNanos;
+        boolean drained;
+        long generated;
+        long written;
+        long dropped;
+        long truncated;
+        long unsent;
+        long bytesWritten;
+        long batchesWritten;
+        long connectAttempts;
+        LatencyHistogram enqueueLatency;
+        long[] wireLatencyMicros;
+        final Map<String, long[]> gc = new HashMap<>();
+
+        void print(PrintStream out) {
+            final double produceSeconds = produceNanos / 1e9;
+            final double totalSeconds = (produceNanos + drainNanos) / 1e9;
+            out.printf(Locale.ROOT, "Duration          %.1f s, %.1f s more to send what was queued%s%n",
+                    produceSeconds, drainNanos / 1e9, drained ? "" : " (timed out)");
+            out.printf(Locale.ROOT, "Logged            %d lines, %.0f lines/s%n", generated, generated / produceSeconds);
+            out.printf(Locale.ROOT, "Sent              %d lines, %.0f lines/s, %.2f MB/s in %d batches%n",
+                    written, written / totalSeconds, bytesWritten / totalSeconds / 1e6, batchesWritten);
+            out.printf(Locale.ROOT, "Dropped           %d lines (%.2f%%), %d truncated, %d left unsent%n",
+                    dropped, generated == 0 ? 0 : 100.0 * dropped / generated, truncated, unsent);
+            out.printf(Locale.ROOT, "Queueing latency  p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+                    enqueueLatency.percentileMicros(50), enqueueLatency.percentileMicros(99),
+                    enqueueLatency.percentileMicros(99.9), enqueueLatency.maxMicros());
+            out.printf(Locale.ROOT, "Wire latency      p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+                    wireLatencyMicros[0], wireLatencyMicros[1], wireLatencyMicros[2], wireLatencyMicros[3]);
+            out.printf(Locale.ROOT, "Connect attempts  %d%n", connectAttempts);
+            for (Map.Entry<String, long[]> gc : this.gc.entrySet()) {
+                out.printf(Locale.ROOT, "%-17s %d collections, %d ms%n", "GC " + gc.getKey(), gc.getValue()[0], gc.getValue()[1]);
+            }
+        }
+    }
+}
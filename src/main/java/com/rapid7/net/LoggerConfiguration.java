@@ -5,6 +5,65 @@ package com.rapid7.net;
  */
 public class LoggerConfiguration {
 
+    /**
+     * Default maximum number of lines sent in a single batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 512;
+    /**
+     * Default maximum number of encoded bytes sent in a single batch.
+     */
+    public static final int DEFAULT_BATCH_BYTES = 64 * 1024;
+    /**
+     * Default time in milliseconds to wait for more lines before a batch is sent.
+     */
+    public static final long DEFAULT_LINGER_MS = 0;
+    /**
+     * Default maximum number of lines held in the queue.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 32768;
+    /**
+     * Default time in milliseconds a logging thread waits for queue space with {@link OverflowPolicy#BLOCK}.
+     */
+    public static final long DEFAULT_BLOCK_TIMEOUT_MS = 1000;
+    /**
+     * Default time in milliseconds closing waits for queued lines to be sent.
+     */
+    public static final long DEFAULT_CLOSE_TIMEOUT_MS = 5000;
+    /**
+     * Default time in milliseconds to wait for a connection to be opened, TLS handshake included;
+     * 0 waits indefinitely, as connections always did before the timeout could be set.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 0;
+    /**
+     * Default time in milliseconds a write may take before the connection is considered stalled and reopened;
+     * 0 waits indefinitely and starts no watchdog, as before the timeout could be set.
+     */
+    public static final long DEFAULT_WRITE_TIMEOUT_MS = 0;
+    /**
+     * Whether Nagle's algorithm is disabled by default; it is left on, as the socket default.
+     */
+    public static final boolean DEFAULT_TCP_NO_DELAY = false;
+    /**
+     * Default maximum number of parts an oversized line is split into.
+     */
+    public static final int DEFAULT_MAX_SPLIT_PARTS = 32;
+    /**
+     * Default maximum number of bytes held by queued lines.
+     */
+    public static final long DEFAULT_QUEUE_BYTES = 64L * 1024 * 1024;
+    /**
+     * Default size of a spill journal segment file.
+     */
+    public static final int DEFAULT_SPILL_SEGMENT_BYTES = 16 * 1024 * 1024;
+    /**
+     * Default maximum disk space used by the spill journal.
+     */
+    public static final long DEFAULT_SPILL_MAX_BYTES = 1024L * 1024 * 1024;
+    /**
+     * Default maximum number of HTTP requests in flight with {@link Transport#HTTP}.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
     /**
      * Destination Token.
      */
@@ -57,6 +116,135 @@ public class LoggerConfiguration {
      * LogID - user-defined ID string that is appended to the log message if non-empty.
      */
     private String logID;
+    /**
+     * BatchSize - maximum number of lines written to the socket with a single flush.
+     */
+    private int batchSize;
+    /**
+     * BatchBytes - maximum number of encoded bytes written to the socket with a single flush.
+     */
+    private int batchBytes;
+    /**
+     * LingerMs - how long the sender waits for more lines to fill a batch before sending it.
+     */
+    private long lingerMs;
+    /**
+     * QueueCapacity - maximum number of lines waiting to be sent.
+     */
+    private int queueCapacity;
+    /**
+     * OverflowPolicy - what happens to a line when the queue is full.
+     */
+    private OverflowPolicy overflowPolicy;
+    /**
+     * BlockTimeoutMs - how long a logging thread waits for queue space with {@link OverflowPolicy#BLOCK}.
+     */
+    private long blockTimeoutMs;
+    /**
+     * CloseTimeoutMs - how long closing waits for queued lines to be sent.
+     */
+    private long closeTimeoutMs;
+    /**
+     * ConnectTimeoutMs - how long opening a connection may take, 0 to wait indefinitely.
+     */
+    private int connectTimeoutMs;
+    /**
+     * WriteTimeoutMs - how long a write may take before the connection is reopened, 0 to wait indefinitely.
+     */
+    private long writeTimeoutMs;
+    /**
+     * WaitStrategy - how the sender waits for lines and logging threads wait for queue space.
+     */
+    private WaitStrategy waitStrategy;
+    /**
+     * SplitPolicy - what happens to lines longer than the log length limit.
+     */
+    private SplitPolicy splitPolicy;
+    /**
+     * MaxSplitParts - maximum number of parts an oversized line is split into, the rest is discarded.
+     */
+    private int maxSplitParts;
+    /**
+     * ContinuationMarkers - switch that determines whether parts of a split line are marked with an event id and part number.
+     */
+    private boolean continuationMarkers;
+    /**
+     * QueueBytes - maximum number of bytes held by queued lines.
+     */
+    private long queueBytes;
+    /**
+     * SpillDirectory - directory of the disk journal used when the queue fills up, null to disable it.
+     */
+    private String spillDirectory;
+    /**
+     * SpillSegmentBytes - size of each spill journal segment file.
+     */
+    private int spillSegmentBytes;
+    /**
+     * SpillMaxBytes - maximum disk space used by the spill journal.
+     */
+    private long spillMaxBytes;
+    /**
+     * Transport - network transport used to send lines.
+     */
+    private Transport transport;
+    /**
+     * Connections - number of connections, each with its own sender thread.
+     */
+    private int connections;
+    /**
+     * ShardingKey - what decides which connection sends a line.
+     */
+    private ShardingKey shardingKey;
+    /**
+     * Compression - gzip request bodies with {@link Transport#HTTP}.
+     */
+    private boolean compression;
+    /**
+     * MaxInFlight - maximum number of HTTP requests in flight with {@link Transport#HTTP}.
+     */
+    private int maxInFlight;
+    /**
+     * SharedConnection - send through the sender shared by all loggers for the same destination.
+     */
+    private boolean sharedConnection;
+    /**
+     * SenderPool - send through a small pool of threads shared by all loggers instead of a thread per connection.
+     * Its connections use {@link Transport#NIO} unless {@link Transport#HTTP} is set.
+     */
+    private boolean senderPool;
+    /**
+     * Jmx - register an {@link AsyncLoggerMXBean} with the logger statistics.
+     */
+    private boolean jmx;
+    /**
+     * TlsProtocols - SSL/TLS protocols enabled, {@code null} for the JVM defaults.
+     */
+    private String[] tlsProtocols;
+    /**
+     * TlsCipherSuites - cipher suites enabled, {@code null} for the JVM defaults.
+     */
+    private String[] tlsCipherSuites;
+    /**
+     * TlsSessionCacheSize - number of TLS sessions cached for resumption, 0 to use the JVM's default SSL context.
+     */
+    private int tlsSessionCacheSize;
+    /**
+     * SendBufferBytes - size of the socket send buffer, 0 for the operating system default.
+     */
+    private int sendBufferBytes;
+    /**
+     * TcpNoDelay - whether Nagle's algorithm is disabled.
+     */
+    private boolean tcpNoDelay;
+    /**
+     * KeepAlive - whether TCP keepalive probes are sent on idle connections.
+     */
+    private boolean keepAlive;
+    /**
+     * TrafficClass - IP type of service or traffic class octet of the packets sent, 0 to leave it unset.
+     */
+    private int trafficClass;
 
     private LoggerConfiguration() {
     }
@@ -113,6 +301,134 @@ public class LoggerConfiguration {
         return region;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getBlockTimeoutMs() {
+        return blockTimeoutMs;
+    }
+
+    public long getCloseTimeoutMs() {
+        return closeTimeoutMs;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public long getWriteTimeoutMs() {
+        return writeTimeoutMs;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public SplitPolicy getSplitPolicy() {
+        return splitPolicy;
+    }
+
+    public int getMaxSplitParts() {
+        return maxSplitParts;
+    }
+
+    public boolean isContinuationMarkers() {
+        return continuationMarkers;
+    }
+
+    public long getQueueBytes() {
+        return queueBytes;
+    }
+
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    public int getSpillSegmentBytes() {
+        return spillSegmentBytes;
+    }
+
+    public long getSpillMaxBytes() {
+        return spillMaxBytes;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public ShardingKey getShardingKey() {
+        return shardingKey;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public boolean isSharedConnection() {
+        return sharedConnection;
+    }
+
+    public boolean isSenderPool() {
+        return senderPool;
+    }
+
+    public boolean isJmx() {
+        return jmx;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public String[] getTlsProtocols() {
+        return tlsProtocols;
+    }
+
+    public String[] getTlsCipherSuites() {
+        return tlsCipherSuites;
+    }
+
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    public int getSendBufferBytes() {
+        return sendBufferBytes;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public int getTrafficClass() {
+        return trafficClass;
+    }
+
     public static class Builder {
         private String token;
         private String region;
@@ -127,6 +443,38 @@ public class LoggerConfiguration {
         private boolean logHostName;
         private String hostName;
         private String logID;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private int batchBytes = DEFAULT_BATCH_BYTES;
+        private long lingerMs = DEFAULT_LINGER_MS;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        private long blockTimeoutMs = DEFAULT_BLOCK_TIMEOUT_MS;
+        private long closeTimeoutMs = DEFAULT_CLOSE_TIMEOUT_MS;
+        private int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+        private long writeTimeoutMs = DEFAULT_WRITE_TIMEOUT_MS;
+        private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+        private SplitPolicy splitPolicy = SplitPolicy.SPLIT;
+        private int maxSplitParts = DEFAULT_MAX_SPLIT_PARTS;
+        private boolean continuationMarkers;
+        private long queueBytes = DEFAULT_QUEUE_BYTES;
+        private String spillDirectory;
+        private int spillSegmentBytes = DEFAULT_SPILL_SEGMENT_BYTES;
+        private long spillMaxBytes = DEFAULT_SPILL_MAX_BYTES;
+        private Transport transport = Transport.SOCKET;
+        private int connections = 1;
+        private ShardingKey shardingKey = ShardingKey.THREAD;
+        private boolean compression;
+        private boolean sharedConnection;
+        private boolean senderPool;
+        private boolean jmx = true;
+        private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        private String[] tlsProtocols;
+        private String[] tlsCipherSuites;
+        private int tlsSessionCacheSize;
+        private int sendBufferBytes;
+        private boolean tcpNoDelay = DEFAULT_TCP_NO_DELAY;
+        private boolean keepAlive;
+        private int trafficClass;
 
         public Builder useToken(String token) {
             this.token = token;
@@ -193,6 +541,185 @@ public class LoggerConfiguration {
             return this;
         }
 
+        public Builder withBatchSize(int batchSize) {
+            this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+            return this;
+        }
+
+        public Builder withBatchBytes(int batchBytes) {
+            this.batchBytes = batchBytes > 0 ? batchBytes : DEFAULT_BATCH_BYTES;
+            return this;
+        }
+
+        public Builder withLingerMs(long lingerMs) {
+            this.lingerMs = Math.max(0, lingerMs);
+            return this;
+        }
+
+        public Builder withQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity > 0 ? queueCapacity : DEFAULT_QUEUE_CAPACITY;
+            return this;
+        }
+
+        public Builder withOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy != null ? overflowPolicy : OverflowPolicy.DROP_OLDEST;
+            return this;
+        }
+
+        public Builder withBlockTimeoutMs(long blockTimeoutMs) {
+            this.blockTimeoutMs = Math.max(0, blockTimeoutMs);
+            return this;
+        }
+
+        public Builder withCloseTimeoutMs(long closeTimeoutMs) {
+            this.closeTimeoutMs = Math.max(0, closeTimeoutMs);
+            return this;
+        }
+
+        public Builder withConnectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = Math.max(0, connectTimeoutMs);
+            return this;
+        }
+
+        public Builder withWriteTimeoutMs(long writeTimeoutMs) {
+            this.writeTimeoutMs = Math.max(0, writeTimeoutMs);
+            return this;
+        }
+
+        public Builder withWaitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = waitStrategy != null ? waitStrategy : WaitStrategy.BLOCKING;
+            return this;
+        }
+
+        public Builder withSplitPolicy(SplitPolicy splitPolicy) {
+            this.splitPolicy = splitPolicy != null ? splitPolicy : SplitPolicy.SPLIT;
+            return this;
+        }
+
+        public Builder withMaxSplitParts(int maxSplitParts) {
+            this.maxSplitParts = maxSplitParts > 0 ? maxSplitParts : DEFAULT_MAX_SPLIT_PARTS;
+            return this;
+        }
+
+        public Builder useContinuationMarkers(boolean continuationMarkers) {
+            this.continuationMarkers = continuationMarkers;
+            return this;
+        }
+
+        public Builder withQueueBytes(long queueBytes) {
+            this.queueBytes = queueBytes > 0 ? queueBytes : DEFAULT_QUEUE_BYTES;
+            return this;
+        }
+
+        public Builder withSpillDirectory(String spillDirectory) {
+            this.spillDirectory = spillDirectory == null || spillDirectory.trim().isEmpty() ? null : spillDirectory;
+            return this;
+        }
+
+        public Builder withSpillSegmentBytes(int spillSegmentBytes) {
+            this.spillSegmentBytes = spillSegmentBytes > 0 ? spillSegmentBytes : DEFAULT_SPILL_SEGMENT_BYTES;
+            return this;
+        }
+
+        public Builder withSpillMaxBytes(long spillMaxBytes) {
+            this.spillMaxBytes = spillMaxBytes > 0 ? spillMaxBytes : DEFAULT_SPILL_MAX_BYTES;
+            return this;
+        }
+
+        public Builder withTransport(Transport transport) {
+            this.transport = transport != null ? transport : Transport.SOCKET;
+            return this;
+        }
+
+        public Builder withConnections(int connections) {
+            this.connections = Math.max(1, connections);
+            return this;
+        }
+
+        public Builder withShardingKey(ShardingKey shardingKey) {
+            this.shardingKey = shardingKey != null ? shardingKey : ShardingKey.THREAD;
+            return this;
+        }
+
+        public Builder useCompression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        public Builder useSharedConnection(boolean sharedConnection) {
+            this.sharedConnection = sharedConnection;
+            return this;
+        }
+
+        public Builder useSenderPool(boolean senderPool) {
+            this.senderPool = senderPool;
+            return this;
+        }
+
+        public Builder useJmx(boolean jmx) {
+            this.jmx = jmx;
+            return this;
+        }
+
+        public Builder withMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight > 0 ? maxInFlight : DEFAULT_MAX_IN_FLIGHT;
+            return this;
+        }
+
+        /**
+         * @param tlsProtocols comma separated SSL/TLS protocols to enable, such as {@code TLSv1.3,TLSv1.2}
+         */
+        public Builder withTlsProtocols(String tlsProtocols) {
+            this.tlsProtocols = splitList(tlsProtocols);
+            return this;
+        }
+
+        /**
+         * @param tlsCipherSuites comma separated cipher suites to enable
+         */
+        public Builder withTlsCipherSuites(String tlsCipherSuites) {
+            this.tlsCipherSuites = splitList(tlsCipherSuites);
+            return this;
+        }
+
+        public Builder withTlsSessionCacheSize(int tlsSessionCacheSize) {
+            this.tlsSessionCacheSize = Math.max(0, tlsSessionCacheSize);
+            return this;
+        }
+
+        /**
+         * @param sendBufferBytes size of the socket send buffer, 0 for the operating system default
+         */
+        public Builder withSendBufferBytes(int sendBufferBytes) {
+            this.sendBufferBytes = Math.max(0, sendBufferBytes);
+            return this;
+        }
+
+        public Builder useTcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public Builder useKeepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * @param trafficClass IP type of service or traffic class octet, between 0 and 255, such as 0x10 for low delay
+         */
+        public Builder withTrafficClass(int trafficClass) {
+            this.trafficClass = trafficClass >= 0 && trafficClass <= 255 ? trafficClass : 0;
+            return this;
+        }
+
+        private static String[] splitList(String list) {
+            if (Utils.isNullOrEmpty(list) || list.trim().isEmpty()) {
+                return null;
+            }
+            return list.trim().split("\\s*,\\s*");
+        }
+
         public LoggerConfiguration build() {
             LoggerConfiguration configuration = new LoggerConfiguration();
             configuration.token = token;
@@ -208,6 +735,38 @@ public class LoggerConfiguration {
             configuration.logHostName = logHostName;
             configuration.hostName = hostName;
             configuration.logID = logID;
+            configuration.batchSize = batchSize;
+            configuration.batchBytes = batchBytes;
+            configuration.lingerMs = lingerMs;
+            configuration.queueCapacity = queueCapacity;
+            configuration.overflowPolicy = overflowPolicy;
+            configuration.blockTimeoutMs = blockTimeoutMs;
+            configuration.closeTimeoutMs = closeTimeoutMs;
+            configuration.connectTimeoutMs = connectTimeoutMs;
+            configuration.writeTimeoutMs = writeTimeoutMs;
+            configuration.waitStrategy = waitStrategy;
+            configuration.splitPolicy = splitPolicy;
+            configuration.maxSplitParts = maxSplitParts;
+            configuration.continuationMarkers = continuationMarkers;
+            configuration.queueBytes = queueBytes;
+            configuration.spillDirectory = spillDirectory;
+            configuration.spillSegmentBytes = spillSegmentBytes;
+            configuration.spillMaxBytes = spillMaxBytes;
+            configuration.transport = transport;
+            configuration.connections = connections;
+            configuration.shardingKey = shardingKey;
+            configuration.compression = compression;
+            configuration.sharedConnection = sharedConnection;
+            configuration.senderPool = senderPool;
+            configuration.jmx = jmx;
+            configuration.maxInFlight = maxInFlight;
+            configuration.tlsProtocols = tlsProtocols;
+            configuration.tlsCipherSuites = tlsCipherSuites;
+            configuration.tlsSessionCacheSize = tlsSessionCacheSize;
+            configuration.sendBufferBytes = sendBufferBytes;
+            configuration.tcpNoDelay = tcpNoDelay;
+            configuration.keepAlive = keepAlive;
+            configuration.trafficClass = trafficClass;
             return configuration;
         }
     }
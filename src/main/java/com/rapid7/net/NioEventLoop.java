@@ -0,0 +1,195 @@
+package com.rapid7.net;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Selector thread that finishes the writes of {@link NioInsightOpsClient} connections
+ * once their peers can take more data. A single loop services every NIO connection
+ * of the process.
+ * <p>
+ * The loop is started by the first connection opened and stopped, its selector closed,
+ * once the last one is closed, so that no thread outlives the loggers using it.
+ */
+final class NioEventLoop extends Thread {
+
+    /**
+     * How long registering a channel may take, which only happens if the loop is stuck.
+     */
+    static final long REGISTER_TIMEOUT_MS = 10000;
+    /**
+     * Pause after the selector failed, so that a lasting failure does not spin the loop.
+     */
+    private static final long SELECT_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Running loop, {@code null} while no connection is open. Guarded by the class.
+     */
+    private static NioEventLoop shared;
+    /**
+     * Number of open connections using the running loop. Guarded by the class.
+     */
+    private static int users;
+
+    private final Selector selector;
+    private volatile boolean stopped;
+    /**
+     * Changes to the selector, which are only made from the loop thread.
+     */
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private NioEventLoop() throws IOException {
+        super("InsightOps NIO event loop");
+        // Don't block shut down
+        setDaemon(true);
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Returns the loop shared by all connections, starting it if needed, and counts one
+     * more user, which must {@link #release()} it once done.
+     *
+     * @throws IOException Thrown if the selector cannot be opened
+     */
+    static synchronized NioEventLoop acquire() throws IOException {
+        if (shared == null) {
+            NioEventLoop loop = new NioEventLoop();
+            loop.start();
+            shared = loop;
+        }
+        users++;
+        return shared;
+    }
+
+    /**
+     * Counts one user less, stopping the loop once it has none left.
+     */
+    void release() {
+        synchronized (NioEventLoop.class) {
+            if (shared != this || --users > 0) {
+                return;
+            }
+            shared = null;
+        }
+        stopped = true;
+        selector.wakeup();
+    }
+
+    //  VisibleForTesting
+    static synchronized NioEventLoop running() {
+        return shared;
+    }
+
+    /**
+     * Registers a non-blocking channel, with no interest set yet.
+     *
+     * @param channel channel to register
+     * @param client  connection notified when the channel becomes writable
+     * @return the channel's key
+     * @throws IOException Thrown if the channel cannot be registered in time
+     */
+    SelectionKey register(SocketChannel channel, NioInsightOpsClient client) throws IOException {
+        CompletableFuture<SelectionKey> key = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                key.complete(channel.register(selector, 0, client));
+            } catch (IOException | RuntimeException e) {
+                key.completeExceptionally(e);
+            }
+        });
+        try {
+            return key.get(REGISTER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while registering channel", e);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out registering channel", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot register channel", e.getCause());
+        }
+    }
+
+    /**
+     * Asks to be notified once the channel of the key can take more data.
+     */
+    void watchWritable(SelectionKey key) {
+        execute(() -> {
+            if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            loop();
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void loop() {
+        while (!stopped) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                warn("NIO selector failed", e);
+                LockSupport.parkNanos(SELECT_BACKOFF_NANOS);
+                continue;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (CancelledKeyException e) {
+                    // The connection was closed in the meantime
+                } catch (RuntimeException e) {
+                    // Keeps the loop running for the other connections
+                    warn("NIO event loop task failed", e);
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (key.isWritable()) {
+                        ((NioInsightOpsClient) key.attachment()).onWritable(key);
+                    }
+                } catch (CancelledKeyException e) {
+                    // The connection was closed in the meantime
+                } catch (RuntimeException e) {
+                    // Fails the next write of that connection, which then reconnects
+                    warn("NIO connection failed", e);
+                    ((NioInsightOpsClient) key.attachment()).close();
+                }
+            }
+        }
+    }
+
+    private static void warn(String msg, Throwable t) {
+        System.err.println("IOPS " + msg + ": " + t);
+    }
+}
@@ -0,0 +1,401 @@
+package com.rapid7.net;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client sending to InsightOPS over a non-blocking {@link SocketChannel}, with TLS done by
+ * an {@link SSLEngine}.
+ * <p>
+ * Written data is copied, or encrypted, into pooled direct buffers and sent with gathering
+ * writes. Whatever the peer cannot take right away stays buffered and is sent by the shared
+ * {@link NioEventLoop} as the channel becomes writable, so a write only waits once more than
+ * {@link #MAX_PENDING_BYTES} are buffered.
+ */
+public class NioInsightOpsClient extends InsightOpsClient {
+
+    /**
+     * Buffered bytes beyond which writes wait for the peer.
+     */
+    static final long MAX_PENDING_BYTES = 4 * 1024 * 1024;
+    /**
+     * Maximal number of buffers passed to a single gathering write.
+     */
+    private static final int MAX_GATHER = 16;
+    /**
+     * Largest plaintext held by a TLS record.
+     */
+    private static final int MAX_TLS_FRAGMENT = 16 * 1024;
+
+    /**
+     * Guards the connection state, shared between the writing thread and the event loop.
+     */
+    private final Object lock = new Object();
+    /**
+     * Buffers ready to be written, in read mode; the last one may still be appended to.
+     */
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final DirectBufferPool bufferPool = DirectBufferPool.SHARED;
+
+    private SocketChannel channel;
+    private SSLEngine engine;
+    /**
+     * Event loop used while the connection is open.
+     */
+    private NioEventLoop loop;
+    private SelectionKey key;
+    private long pendingBytes;
+    /**
+     * State of the buffer being appended to, see {@link #beginAppend(int)}.
+     */
+    private int appendUnsent;
+    private int appendStart;
+    private boolean watching;
+    /**
+     * Error met by the event loop, reported by the next write.
+     */
+    private IOException failure;
+
+    public NioInsightOpsClient(boolean httpPut, boolean ssl, boolean isUsingDataHub, String server, int port, String region) {
+        super(httpPut, ssl, isUsingDataHub, server, port, region);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        close();
+        SocketChannel ch = SocketChannel.open();
+        try {
+            final long start = System.nanoTime();
+            getSocketSettings().apply(ch.socket());
+            ch.socket().connect(new InetSocketAddress(getAddress(), getPort()), getConnectTimeoutMs());
+            final long connected = System.nanoTime();
+            ch.configureBlocking(false);
+            SSLEngine sslEngine = null;
+            if (isSsl()) {
+                sslEngine = getTls().createEngine(getAddress(), getPort());
+                handshake(ch, sslEngine, start);
+            }
+            PipelineEvents.connected(getAddress(), getPort(), connected - start, sslEngine != null ? System.nanoTime() - connected : 0);
+            NioEventLoop eventLoop = NioEventLoop.acquire();
+            try {
+                SelectionKey selectionKey = eventLoop.register(ch, this);
+                synchronized (lock) {
+                    this.channel = ch;
+                    this.engine = sslEngine;
+                    this.loop = eventLoop;
+                    this.key = selectionKey;
+                }
+            } catch (IOException e) {
+                eventLoop.release();
+                throw e;
+            }
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        synchronized (lock) {
+            if (channel == null) {
+                throw new IOException();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            ByteBuffer src = ByteBuffer.wrap(buffer, offset, length);
+            if (engine != null) {
+                encrypt(src);
+            } else {
+                copy(src);
+            }
+            drain();
+            if (pendingBytes > 0 && !watching) {
+                watching = true;
+                loop.watchWritable(key);
+            }
+            awaitPendingBelow(MAX_PENDING_BYTES);
+        }
+    }
+
+    @Override
+    boolean wouldWait(int length) {
+        synchronized (lock) {
+            if (channel == null || failure != null) {
+                // The write fails right away
+                return false;
+            }
+            long size = length;
+            if (engine != null) {
+                // Each record adds at most its header, padding and authentication tag
+                size += (length / MAX_TLS_FRAGMENT + 1L) * (engine.getSession().getPacketBufferSize() - MAX_TLS_FRAGMENT);
+            }
+            return pendingBytes + size > MAX_PENDING_BYTES;
+        }
+    }
+
+    /**
+     * Number of bytes written but not yet taken by the peer.
+     */
+    long getPendingBytes() {
+        synchronized (lock) {
+            return pendingBytes;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (channel == null) {
+                return;
+            }
+            if (engine != null) {
+                engine.closeOutbound();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            for (ByteBuffer buffer : outbound) {
+                bufferPool.release(buffer);
+            }
+            outbound.clear();
+            loop.release();
+            channel = null;
+            engine = null;
+            loop = null;
+            key = null;
+            pendingBytes = 0;
+            watching = false;
+            failure = null;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Called by the event loop once the channel can take more data.
+     */
+    void onWritable(SelectionKey selectionKey) {
+        synchronized (lock) {
+            if (selectionKey != key) {
+                return;
+            }
+            try {
+                drain();
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (pendingBytes == 0 || failure != null) {
+                selectionKey.interestOps(0);
+                watching = false;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Runs the TLS handshake on the non-blocking channel, within the connect timeout
+     * counted from {@code start}.
+     */
+    private void handshake(SocketChannel ch, SSLEngine sslEngine, long start) throws IOException {
+        int packetSize = sslEngine.getSession().getPacketBufferSize();
+        ByteBuffer netIn = ByteBuffer.allocate(packetSize);
+        ByteBuffer netOut = ByteBuffer.allocate(packetSize);
+        ByteBuffer appIn = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(getConnectTimeoutMs());
+
+        try (Selector selector = Selector.open()) {
+            SelectionKey handshakeKey = ch.register(selector, 0);
+            sslEngine.beginHandshake();
+            SSLEngineResult.HandshakeStatus status = sslEngine.getHandshakeStatus();
+            while (status != SSLEngineResult.HandshakeStatus.FINISHED
+                    && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                switch (status) {
+                    case NEED_WRAP:
+                        netOut.clear();
+                        SSLEngineResult wrapped = sslEngine.wrap(empty, netOut);
+                        netOut.flip();
+                        while (netOut.hasRemaining()) {
+                            if (ch.write(netOut) == 0) {
+                                awaitReady(handshakeKey, SelectionKey.OP_WRITE, deadline);
+                            }
+                        }
+                        status = wrapped.getHandshakeStatus();
+                        break;
+                    case NEED_TASK:
+                        Runnable task;
+                        while ((task = sslEngine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        status = sslEngine.getHandshakeStatus();
+                        break;
+                    default:
+                        netIn.flip();
+                        SSLEngineResult unwrapped = sslEngine.unwrap(netIn, appIn);
+                        netIn.compact();
+                        if (unwrapped.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                            int read = ch.read(netIn);
+                            if (read < 0) {
+                                throw new EOFException("Connection closed during TLS handshake");
+                            }
+                            if (read == 0) {
+                                awaitReady(handshakeKey, SelectionKey.OP_READ, deadline);
+                            }
+                        }
+                        if (unwrapped.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            throw new SSLException("TLS handshake failed, connection closed");
+                        }
+                        status = unwrapped.getHandshakeStatus();
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the channel to be ready for the operation, until the deadline unless the
+     * connect timeout is 0.
+     */
+    private void awaitReady(SelectionKey selectionKey, int ops, long deadline) throws IOException {
+        selectionKey.interestOps(ops);
+        final Selector selector = selectionKey.selector();
+        final boolean timed = getConnectTimeoutMs() > 0;
+        while (true) {
+            long remainingMs = timed ? TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) : 0;
+            if (timed && remainingMs <= 0) {
+                throw new SocketTimeoutException("TLS handshake with " + getAddress() + " timed out");
+            }
+            if (selector.select(remainingMs) > 0) {
+                selector.selectedKeys().clear();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens the last outbound buffer for appending, or a new one if it has less than
+     * {@code room} bytes free. The buffer is returned in write mode and must be handed
+     * back to {@link #endAppend(ByteBuffer)}.
+     */
+    private ByteBuffer beginAppend(int room) {
+        ByteBuffer last = outbound.peekLast();
+        if (last == null || last.capacity() - last.limit() < room) {
+            last = bufferPool.acquire();
+            last.flip();
+            outbound.addLast(last);
+        }
+        appendUnsent = last.position();
+        appendStart = last.limit();
+        last.position(appendStart);
+        last.limit(last.capacity());
+        return last;
+    }
+
+    /**
+     * Puts the buffer opened by {@link #beginAppend(int)} back in read mode.
+     */
+    private void endAppend(ByteBuffer last) {
+        pendingBytes += last.position() - appendStart;
+        last.limit(last.position());
+        last.position(appendUnsent);
+    }
+
+    private void copy(ByteBuffer src) {
+        while (src.hasRemaining()) {
+            ByteBuffer last = beginAppend(1);
+            int n = Math.min(src.remaining(), last.remaining());
+            int limit = src.limit();
+            src.limit(src.position() + n);
+            last.put(src);
+            src.limit(limit);
+            endAppend(last);
+        }
+    }
+
+    private void encrypt(ByteBuffer src) throws IOException {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        while (src.hasRemaining()) {
+            ByteBuffer last = beginAppend(packetSize);
+            SSLEngineResult result = engine.wrap(src, last);
+            endAppend(last);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("TLS connection closed");
+            }
+        }
+    }
+
+    /**
+     * Writes as much of the outbound buffers as the channel takes without blocking.
+     */
+    private void drain() throws IOException {
+        while (pendingBytes > 0) {
+            int count = 0;
+            for (ByteBuffer buffer : outbound) {
+                if (count == MAX_GATHER) {
+                    break;
+                }
+                gather[count++] = buffer;
+            }
+            long written = channel.write(gather, 0, count);
+            Arrays.fill(gather, 0, count, null);
+            pendingBytes -= written;
+            // Recycle the buffers sent completely, keeping the last one to append to
+            while (outbound.size() > 1 && !outbound.peekFirst().hasRemaining()) {
+                bufferPool.release(outbound.pollFirst());
+            }
+            if (written == 0) {
+                // The peer is not taking more for now
+                return;
+            }
+        }
+        for (ByteBuffer buffer : outbound) {
+            bufferPool.release(buffer);
+        }
+        outbound.clear();
+    }
+
+    /**
+     * Waits for the event loop to bring the buffered data down to {@code limit} bytes.
+     */
+    private void awaitPendingBelow(long limit) throws IOException {
+        if (pendingBytes <= limit) {
+            return;
+        }
+        final long timeoutMs = getWriteTimeoutMs();
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            while (pendingBytes > limit) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (timeoutMs > 0 && remaining <= 0) {
+                    throw new IOException("Timed out writing to " + getAddress());
+                }
+                lock.wait(timeoutMs > 0 ? remaining : 0);
+                if (failure != null) {
+                    throw failure;
+                }
+                if (channel == null) {
+                    throw new IOException("Connection closed");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing to " + getAddress());
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.rapid7.net;
+
+/**
+ * Determines what {@link AsyncLogger} does with a line when its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Removes the oldest queued line to make space for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Discards the new line and keeps the queue as it is.
+     */
+    DROP_NEWEST,
+    /**
+     * Blocks the logging thread until space is available or the block timeout elapses,
+     * in which case the new line is discarded.
+     */
+    BLOCK,
+    /**
+     * Writes the new line synchronously on the logging thread, bypassing the queue.
+     * The line is discarded if the connection is not currently available.
+     */
+    CALLER_RUNS
+}
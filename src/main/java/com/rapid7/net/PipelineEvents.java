@@ -0,0 +1,67 @@
+package com.rapid7.net;
+
+/**
+ * JDK Flight Recorder events of the logging pipeline.
+ * <p>
+ * Flight Recorder needs Java 11, this version does nothing and costs nothing once inlined.
+ * The jar is multi-release: on Java 11 and later the version in {@code META-INF/versions/11}
+ * is loaded instead, which commits the events while a recording enables them.
+ */
+final class PipelineEvents {
+
+    private PipelineEvents() {}
+
+    /**
+     * A line, or part of a line, was handed to the queue.
+     *
+     * @param size size of the line in characters or bytes
+     */
+    static void enqueued(int size) {
+    }
+
+    /**
+     * A line was dropped.
+     *
+     * @param policy overflow policy in effect
+     */
+    static void dropped(OverflowPolicy policy) {
+    }
+
+    /**
+     * A line too long for a single message was split.
+     *
+     * @param parts number of parts the line makes
+     * @param sent  number of parts sent
+     */
+    static void split(int parts, int sent) {
+    }
+
+    /**
+     * A batch of lines was written to the connection.
+     *
+     * @param lines number of lines of the batch, 0 if unknown
+     * @param bytes number of bytes written
+     * @param nanos time taken by the write
+     */
+    static void batchWritten(int lines, int bytes, long nanos) {
+    }
+
+    /**
+     * A connection was opened.
+     *
+     * @param host           server address
+     * @param port           server port
+     * @param connectNanos   time taken to open the socket
+     * @param handshakeNanos time taken by the TLS handshake, 0 without TLS
+     */
+    static void connected(String host, int port, long connectNanos, long handshakeNanos) {
+    }
+
+    /**
+     * Opening a connection failed and the sender waits before trying again.
+     *
+     * @param delayMs time waited in milliseconds
+     */
+    static void reconnectBackoff(long delayMs) {
+    }
+}
@@ -0,0 +1,153 @@
+package com.rapid7.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Line waiting in the {@link AsyncLogger} queue, holding either the text of the line or
+ * its pre-encoded UTF-8 bytes.
+ * <p>
+ * Instances and their byte buffers are recycled through a {@link LinePool}.
+ */
+final class QueuedLine {
+
+    /**
+     * Approximate size of a QueuedLine instance with its object headers.
+     */
+    private static final int ENTRY_OVERHEAD = 48;
+    /**
+     * Header of lines whose bytes already start with it.
+     */
+    static final byte[] NO_HEADER = new byte[0];
+
+    /**
+     * Text of the line, {@code null} if the line holds encoded bytes.
+     */
+    String text;
+    /**
+     * Index of the first character of the line in {@link #text}.
+     */
+    int textStart;
+    /**
+     * Index after the last character of the line in {@link #text}.
+     */
+    int textEnd;
+    /**
+     * UTF-8 bytes of the line, valid up to {@link #length}.
+     */
+    byte[] bytes;
+    /**
+     * Number of valid bytes in {@link #bytes}.
+     */
+    int length;
+    /**
+     * Bytes this line takes out of the queue's byte budget while it is queued.
+     */
+    int queuedSize;
+    /**
+     * Continuation marker sent in front of a part of a split line, {@code null} otherwise.
+     */
+    String marker;
+    /**
+     * Token and message prefix of the logger that queued the line, shared by all its lines;
+     * {@code null} to use the sender's own.
+     */
+    byte[] header;
+    /**
+     * {@link System#nanoTime()} at which the line was queued, 0 for lines replayed from disk.
+     */
+    long enqueuedAt;
+
+    QueuedLine setText(String text) {
+        return setText(text, 0, text.length());
+    }
+
+    /**
+     * Uses a range of the text as the line; the text itself is shared, not copied.
+     */
+    QueuedLine setText(String text, int start, int end) {
+        this.text = text;
+        this.textStart = start;
+        this.textEnd = end;
+        this.length = 0;
+        return this;
+    }
+
+    QueuedLine setBytes(byte[] src, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(src, offset, this.bytes, 0, length);
+        this.text = null;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * Copies {@code length} bytes starting at {@code offset} without touching the buffer's position.
+     */
+    QueuedLine setBytes(ByteBuffer src, int offset, int length) {
+        if (src.hasArray()) {
+            return setBytes(src.array(), src.arrayOffset() + offset, length);
+        }
+        ensureCapacity(length);
+        // Through a view of its own, the caller's buffer may be read by other threads
+        ByteBuffer view = src.duplicate();
+        view.position(offset);
+        view.get(this.bytes, 0, length);
+        this.text = null;
+        this.length = length;
+        return this;
+    }
+
+    QueuedLine setEncoded(CharSequence chars) {
+        int encodedLength = Utf8.encodedLength(chars, 0, chars.length());
+        ensureCapacity(encodedLength);
+        Utf8.encode(chars, 0, chars.length(), this.bytes, 0);
+        this.text = null;
+        this.length = encodedLength;
+        return this;
+    }
+
+    /**
+     * Returns the size of the line's payload, used for statistics and debugging.
+     */
+    int size() {
+        return text != null ? textEnd - textStart : length;
+    }
+
+    /**
+     * Estimates the heap held by the line: the entry itself, two bytes per char of text
+     * and the whole byte buffer, which stays allocated whatever the line's length.
+     */
+    int retainedSize() {
+        int size = ENTRY_OVERHEAD;
+        if (text != null) {
+            size += 2 * (textEnd - textStart);
+        } else if (bytes != null) {
+            size += bytes.length;
+        }
+        if (marker != null) {
+            size += 2 * marker.length();
+        }
+        return size;
+    }
+
+    /**
+     * Forgets the line's content, keeping the byte buffer if it is no larger than {@code maxRetained}.
+     */
+    void clear(int maxRetained) {
+        text = null;
+        marker = null;
+        header = null;
+        enqueuedAt = 0;
+        length = 0;
+        queuedSize = 0;
+        if (bytes != null && bytes.length > maxRetained) {
+            bytes = null;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (bytes == null || bytes.length < capacity) {
+            bytes = new byte[Math.max(capacity, LinePool.MIN_BUFFER_SIZE)];
+        }
+    }
+}
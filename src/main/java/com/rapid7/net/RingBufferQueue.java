@@ -0,0 +1,354 @@
+package com.rapid7.net;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue backed by a pre-allocated ring.
+ * <p>
+ * Each slot carries a sequence number telling producers and consumers whether it is free
+ * for the current lap, so {@link #offer(Object)} and {@link #poll()} only ever need a single
+ * CAS on the tail or head counter. Blocking operations wait according to the configured
+ * {@link WaitStrategy}; with {@link WaitStrategy#BLOCKING} the lock is only taken when a
+ * thread is actually waiting on the other side.
+ * <p>
+ * The capacity is rounded up to the next power of two, and is at least two. Iterators
+ * walk a weakly consistent snapshot of the queue and do not support removal.
+ *
+ * @param <E> element type
+ */
+final class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**
+     * Number of busy spins before the yielding strategy starts to yield.
+     */
+    private static final int SPIN_TRIES = 100;
+    /**
+     * Longest time a blocked thread parks before re-checking the ring. Waiters are always
+     * signalled, this only bounds the wait should that ever go wrong, without waking idle
+     * threads often.
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+    private final WaitStrategy waitStrategy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private volatile int takeWaiters;
+    private volatile int putWaiters;
+
+    RingBufferQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        // A slot's sequence must be able to tell "published" from "free for the next lap",
+        // which needs at least two slots
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(index, e);
+                    sequences.set(index, pos + 1);
+                    if (takeWaiters > 0) {
+                        signal(notEmpty);
+                    }
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The slot still holds an element from the previous lap
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    @Override
+    public E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = slots.get(index);
+                    slots.lazySet(index, null);
+                    sequences.set(index, pos + mask + 1);
+                    if (putWaiters > 0) {
+                        signal(notFull);
+                    }
+                    return e;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                // Nothing has been published in this slot yet
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    @Override
+    public E peek() {
+        while (true) {
+            long pos = head.get();
+            E e = published(pos);
+            if (e != null || pos == head.get()) {
+                return e;
+            }
+            // Taken in the meantime, look at the new head
+        }
+    }
+
+    /**
+     * Returns the element published at the position, or null if it is not published yet
+     * or has already been taken.
+     */
+    private E published(long pos) {
+        int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            return null;
+        }
+        E e = slots.get(index);
+        // Unless taken, and maybe replaced by the next lap, while being read
+        return sequences.get(index) == pos + 1 ? e : null;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        while (!offer(e, Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+            // keep waiting
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (offer(e)) {
+            return true;
+        }
+        final long deadline = deadline(timeout, unit);
+        int tries = 0;
+        while (true) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (offer(e)) {
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (waitStrategy == WaitStrategy.BLOCKING) {
+                awaitPut(remaining);
+            } else {
+                tries = idle(tries);
+            }
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        while ((e = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) == null) {
+            // keep waiting
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+        final long deadline = deadline(timeout, unit);
+        int tries = 0;
+        while (true) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if ((e = poll()) != null) {
+                return e;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            if (waitStrategy == WaitStrategy.BLOCKING) {
+                awaitTake(remaining);
+            } else {
+                tries = idle(tries);
+            }
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity() - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    @Override
+    public int size() {
+        // Read head first so that a concurrent poll can never make the size negative
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(t - h, capacity()));
+    }
+
+    /**
+     * Number of elements ever added to the queue.
+     */
+    long produced() {
+        return tail.get();
+    }
+
+    /**
+     * Number of elements ever taken from the queue.
+     */
+    long consumed() {
+        return head.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns an iterator over the elements queued when it is created, skipping those
+     * taken while the snapshot is made. Its {@code remove} is not supported.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>(size());
+        final long t = tail.get();
+        for (long pos = head.get(); pos < t; pos++) {
+            E e = published(pos);
+            if (e != null) {
+                snapshot.add(e);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    private static long deadline(long timeout, TimeUnit unit) {
+        long nanos = unit.toNanos(timeout);
+        long now = System.nanoTime();
+        // Saturate so that "wait forever" does not overflow
+        return nanos >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + nanos;
+    }
+
+    private int idle(int tries) {
+        if (waitStrategy == WaitStrategy.BUSY_SPIN) {
+            return tries;
+        }
+        if (tries < SPIN_TRIES) {
+            return tries + 1;
+        }
+        Thread.yield();
+        return tries;
+    }
+
+    private void signal(Condition condition) {
+        lock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitTake(long nanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            takeWaiters++;
+            // Re-check after announcing ourselves, a producer that missed the
+            // announcement has already published its element
+            if (size() == 0) {
+                notEmpty.awaitNanos(Math.min(nanos, MAX_PARK_NANOS));
+            }
+        } finally {
+            takeWaiters--;
+            lock.unlock();
+        }
+    }
+
+    private void awaitPut(long nanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            putWaiters++;
+            if (size() >= capacity()) {
+                notFull.awaitNanos(Math.min(nanos, MAX_PARK_NANOS));
+            }
+        } finally {
+            putWaiters--;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counter padded to its own cache line so that producers and consumers do not
+     * invalidate each other's cached head and tail.
+     */
+    @SuppressWarnings("unused")
+    private static final class PaddedAtomicLong extends AtomicLong {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -0,0 +1,215 @@
+package com.rapid7.net;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Small fixed pool of threads sending the queued lines of many {@link AsyncLogger}s,
+ * in place of a dedicated thread per connection.
+ * <p>
+ * Each connection is serviced by a single pool thread, which keeps its lines in order.
+ * A thread goes round its connections sending at most one batch from each in turn, so a
+ * busy connection cannot hold back the others, and parks once none has a batch due.
+ * <p>
+ * Pool threads never wait on the network: connections are opened and closed by connector
+ * threads, started as needed and stopped once idle, and a connection is only written to
+ * once its client can take the batch without waiting for the peer.
+ * <p>
+ * The pool is started with the first connection registered and stopped once the last
+ * one has been unregistered and closed, so that no thread outlives the loggers using it.
+ */
+final class SenderPool {
+
+    /**
+     * Number of threads of the shared pool.
+     */
+    static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    /**
+     * Longest a pool thread parks without being signalled.
+     */
+    private static final long MAX_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * How long an idle connector thread is kept.
+     */
+    private static final long CONNECTOR_KEEP_ALIVE_MS = 60000;
+
+    /**
+     * Running pool, {@code null} while no connection is registered. Guarded by the class.
+     */
+    private static SenderPool shared;
+    /**
+     * Number of connections registered with the running pool. Guarded by the class.
+     */
+    private static int users;
+
+    private final Worker[] workers;
+    /**
+     * Number of pool threads still running, the last one to stop shuts the connectors down.
+     */
+    private final AtomicInteger runningWorkers;
+    /**
+     * Opens and closes the connections, which may take up to the connect timeout.
+     */
+    private final ExecutorService connectors;
+
+    SenderPool(int threads) {
+        AtomicInteger connectorThreads = new AtomicInteger();
+        connectors = new ThreadPoolExecutor(0, Integer.MAX_VALUE, CONNECTOR_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "InsightOps sender pool connector " + connectorThreads.getAndIncrement());
+            // Don't block shut down
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers = new Worker[threads];
+        runningWorkers = new AtomicInteger(threads);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker("InsightOps sender pool " + i, this);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Starts sending the lines of the connection, from the least loaded thread of the pool
+     * shared by all loggers, starting the pool if needed.
+     */
+    static synchronized void register(AsyncLogger.SocketAppender appender) {
+        if (appender.worker != null) {
+            return;
+        }
+        if (shared == null) {
+            shared = new SenderPool(THREADS);
+        }
+        users++;
+        Worker least = shared.workers[0];
+        for (Worker worker : shared.workers) {
+            if (worker.appenders.size() < least.appenders.size()) {
+                least = worker;
+            }
+        }
+        appender.worker = least;
+        least.appenders.add(appender);
+        least.wake();
+    }
+
+    /**
+     * Stops sending the lines of the connection, which is then closed by a connector thread,
+     * stopping the pool once it has no connection left.
+     */
+    static synchronized void unregister(AsyncLogger.SocketAppender appender) {
+        final Worker worker = appender.worker;
+        if (worker == null || appender.unregistered) {
+            return;
+        }
+        appender.unregistered = true;
+        worker.retired.add(appender);
+        worker.wake();
+        if (worker.pool == shared && --users == 0) {
+            shared = null;
+            for (Worker w : worker.pool.workers) {
+                w.stopped = true;
+                w.wake();
+            }
+        }
+    }
+
+    //  VisibleForTesting
+    static synchronized SenderPool running() {
+        return shared;
+    }
+
+    /**
+     * Number of lines waiting in the queue of each connection, by connection name.
+     */
+    Map<String, Integer> getBacklog() {
+        Map<String, Integer> backlog = new LinkedHashMap<>();
+        for (Worker worker : workers) {
+            for (AsyncLogger.SocketAppender appender : worker.appenders) {
+                backlog.put(appender.getName(), appender.queue.size());
+            }
+        }
+        return backlog;
+    }
+
+    static final class Worker extends Thread {
+        final List<AsyncLogger.SocketAppender> appenders = new CopyOnWriteArrayList<>();
+        final Queue<AsyncLogger.SocketAppender> retired = new ConcurrentLinkedQueue<>();
+        /**
+         * Set when a line is queued, so that it is not missed while the thread goes to park.
+         */
+        private volatile boolean signalled;
+        private volatile boolean parked;
+        /**
+         * Set once the pool has no connection left, the thread stops after closing them.
+         */
+        private volatile boolean stopped;
+        private final SenderPool pool;
+
+        Worker(String name, SenderPool pool) {
+            super(name);
+            this.pool = pool;
+            // Don't block shut down
+            setDaemon(true);
+        }
+
+        /**
+         * Tells the thread there are lines to send, unparking it if needed.
+         */
+        void wake() {
+            if (!signalled) {
+                signalled = true;
+                if (parked) {
+                    LockSupport.unpark(this);
+                }
+            }
+        }
+
+        /**
+         * Opens or closes a connection on a connector thread.
+         */
+        void connect(Runnable task) {
+            pool.connectors.execute(task);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                AsyncLogger.SocketAppender appender;
+                while ((appender = retired.poll()) != null) {
+                    appenders.remove(appender);
+                    appender.retire();
+                }
+                if (stopped && appenders.isEmpty()) {
+                    break;
+                }
+                signalled = false;
+                long wait = MAX_PARK_NANOS;
+                for (AsyncLogger.SocketAppender a : appenders) {
+                    wait = Math.min(wait, a.service());
+                }
+                if (wait <= 0 || signalled) {
+                    continue;
+                }
+                parked = true;
+                if (!signalled && retired.isEmpty()) {
+                    LockSupport.parkNanos(this, wait);
+                }
+                parked = false;
+            }
+            if (pool.runningWorkers.decrementAndGet() == 0) {
+                // Lets the connections being opened or closed finish, then stops the threads
+                pool.connectors.shutdown();
+            }
+        }
+    }
+}
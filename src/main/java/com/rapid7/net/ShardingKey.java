@@ -0,0 +1,16 @@
+package com.rapid7.net;
+
+/**
+ * What decides which connection sends a line when an {@link AsyncLogger} has several.
+ * Lines are only kept in order among lines sent over the same connection.
+ */
+public enum ShardingKey {
+    /**
+     * Lines logged by the same thread go over the same connection.
+     */
+    THREAD,
+    /**
+     * Lines logged through the same logger go over the same connection.
+     */
+    LOGGER
+}
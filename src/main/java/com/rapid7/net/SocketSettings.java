@@ -0,0 +1,54 @@
+package com.rapid7.net;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * TCP options of the connections, applied to their socket before it connects.
+ */
+final class SocketSettings {
+
+    /**
+     * Operating system defaults for everything.
+     */
+    static final SocketSettings DEFAULT = new SocketSettings(0, LoggerConfiguration.DEFAULT_TCP_NO_DELAY, false, 0);
+
+    private final int sendBufferBytes;
+    private final boolean tcpNoDelay;
+    private final boolean keepAlive;
+    private final int trafficClass;
+
+    /**
+     * @param sendBufferBytes size of the socket send buffer, 0 for the operating system default
+     * @param tcpNoDelay      whether Nagle's algorithm is disabled
+     * @param keepAlive       whether TCP keepalive probes are sent on idle connections
+     * @param trafficClass    IP type of service or traffic class octet, 0 to leave it unset
+     */
+    SocketSettings(int sendBufferBytes, boolean tcpNoDelay, boolean keepAlive, int trafficClass) {
+        this.sendBufferBytes = sendBufferBytes;
+        this.tcpNoDelay = tcpNoDelay;
+        this.keepAlive = keepAlive;
+        this.trafficClass = trafficClass;
+    }
+
+    static SocketSettings of(LoggerConfiguration configuration) {
+        return new SocketSettings(configuration.getSendBufferBytes(), configuration.isTcpNoDelay(),
+                configuration.isKeepAlive(), configuration.getTrafficClass());
+    }
+
+    /**
+     * Sets the options on the socket, which should not be connected yet for the send buffer
+     * size to be taken into account from the first segment.
+     */
+    void apply(Socket socket) throws SocketException {
+        if (sendBufferBytes > 0) {
+            socket.setSendBufferSize(sendBufferBytes);
+        }
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        if (trafficClass != 0) {
+            // Only a hint, which the network stack may ignore
+            socket.setTrafficClass(trafficClass);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.rapid7.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Disk-backed overflow for the {@link AsyncLogger} queue.
+ * <p>
+ * Once spilling starts, lines are appended to memory-mapped segment files and read back
+ * by the sender in the same order. All lines logged while there is anything left in the
+ * journal are spilled too, so that the order of lines is kept. Drained segments are
+ * unmapped and deleted, except the one being written to, which is reused from its start
+ * once the reader catches up. Segments left over by a previous process are replayed first.
+ * <p>
+ * Each record is laid out as {@code [length][crc32][payload]}, the payload holding the
+ * line's header, marker and content, so lines of loggers sharing the journal keep their
+ * token. The length is written last and negated once the record has been read, so a torn
+ * record ends its segment and a replay skips what has already been sent. A line that was
+ * read but not yet written to the socket when the process dies is not replayed.
+ * <p>
+ * A directory must not be shared between loggers; a lock file guards against it.
+ */
+final class SpillJournal {
+
+    /**
+     * Result of {@link #offer(QueuedLine, boolean)}.
+     */
+    enum Outcome {
+        /**
+         * The line was written to the journal.
+         */
+        SPILLED,
+        /**
+         * The journal is empty and was not asked to start spilling, the line belongs in the queue.
+         */
+        NOT_SPILLING,
+        /**
+         * The journal is spilling but has no room left for the line.
+         */
+        FULL
+    }
+
+    /**
+     * Smallest segment size, leaves room for a few lines of the maximal length.
+     */
+    static final int MIN_SEGMENT_BYTES = 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "insightops-";
+    private static final String SEGMENT_SUFFIX = ".spill";
+    private static final String LOCK_FILE = "insightops-spill.lock";
+    private static final int RECORD_HEADER = 8;
+    /**
+     * Releases a mapping right away rather than when the buffer is garbage collected, which
+     * keeps the address space and, once deleted, the disk blocks of the file until then and
+     * prevents deleting it on Windows. Does nothing on JVMs offering no way to do it.
+     */
+    private static final Consumer<MappedByteBuffer> UNMAPPER = unmapper();
+
+    private final File directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+
+    /**
+     * Segments still holding unread records, oldest first. The last one is written to.
+     */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private byte[] scratch = new byte[LinePool.MIN_BUFFER_SIZE];
+    private long nextSequence;
+
+    /**
+     * True while the journal holds unread records; read without the lock by the sender.
+     */
+    private volatile boolean spilling;
+    private boolean closed;
+
+    /**
+     * Opens the journal in the given directory, picking up segments left by a previous run.
+     *
+     * @param directory    directory holding the segment files, created if missing
+     * @param segmentBytes size of each segment file
+     * @param maxBytes     maximal disk space used by all segments
+     * @throws IOException Thrown if the directory cannot be used or is locked by another logger
+     */
+    SpillJournal(File directory, int segmentBytes, long maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create spill directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = Math.max(segmentBytes, MIN_SEGMENT_BYTES);
+        this.maxBytes = Math.max(maxBytes, this.segmentBytes);
+        this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        FileLock acquired;
+        try {
+            acquired = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockFile.close();
+            throw new IOException("Spill directory " + directory + " is used by another logger");
+        }
+        this.lock = acquired;
+        recover();
+    }
+
+    /**
+     * Tells whether there are records waiting to be read.
+     */
+    boolean isSpilling() {
+        return spilling;
+    }
+
+    /**
+     * Appends the line to the journal if it is already spilling, or if {@code start} is set.
+     * The line itself is left to the caller.
+     *
+     * @param line  line to append
+     * @param start whether to start spilling if the journal is empty
+     * @return what happened to the line
+     */
+    synchronized Outcome offer(QueuedLine line, boolean start) {
+        if (closed || (!spilling && !start)) {
+            return Outcome.NOT_SPILLING;
+        }
+        int length = encode(line);
+        int recordLength = RECORD_HEADER + length;
+        if (recordLength > segmentBytes) {
+            return full();
+        }
+        Segment tail = segments.peekLast();
+        if (tail == null || !tail.writable || tail.writePosition + recordLength > segmentBytes) {
+            if ((long) (segments.size() + 1) * segmentBytes > maxBytes) {
+                return full();
+            }
+            try {
+                tail = createSegment();
+            } catch (IOException e) {
+                return full();
+            }
+        }
+        crc.reset();
+        crc.update(scratch, 0, length);
+        MappedByteBuffer buffer = tail.buffer;
+        int position = tail.writePosition;
+        buffer.position(position + RECORD_HEADER);
+        buffer.put(scratch, 0, length);
+        buffer.putInt(position + 4, (int) crc.getValue());
+        if (position + recordLength + 4 <= segmentBytes) {
+            // Ends the segment, hiding what earlier use of it left past the record
+            buffer.putInt(position + recordLength, 0);
+        }
+        // The length commits the record
+        buffer.putInt(position, length);
+        tail.writePosition = position + recordLength;
+        spilling = true;
+        return Outcome.SPILLED;
+    }
+
+    /**
+     * A line that does not fit is only lost if lines before it are still in the journal,
+     * otherwise it can go to the queue without breaking the order.
+     */
+    private Outcome full() {
+        return spilling ? Outcome.FULL : Outcome.NOT_SPILLING;
+    }
+
+    /**
+     * Reads the oldest unread record into {@code line}, which then holds its own header.
+     *
+     * @param line line to fill in
+     * @return false if the journal is empty, in which case it stops spilling
+     */
+    synchronized boolean poll(QueuedLine line) {
+        while (true) {
+            Segment head = segments.peekFirst();
+            if (head == null) {
+                spilling = false;
+                return false;
+            }
+            MappedByteBuffer buffer = head.buffer;
+            int position = head.readPosition;
+            int limit = head.writable ? head.writePosition : buffer.capacity();
+            int length = position + RECORD_HEADER <= limit ? buffer.getInt(position) : 0;
+            if (length < 0) {
+                // Already sent before a restart
+                head.readPosition = position + RECORD_HEADER - length;
+                continue;
+            }
+            if (length > 0 && position + RECORD_HEADER + length <= limit) {
+                line.setBytes(buffer, position + RECORD_HEADER, length);
+                crc.reset();
+                crc.update(line.bytes, 0, length);
+                if ((int) crc.getValue() == buffer.getInt(position + 4)) {
+                    line.header = QueuedLine.NO_HEADER;
+                    buffer.putInt(position, -length);
+                    head.readPosition = position + RECORD_HEADER + length;
+                    return true;
+                }
+            }
+            if (head.writable) {
+                // Caught up with the writer, which starts over in the same file
+                buffer.putInt(0, 0);
+                head.readPosition = 0;
+                head.writePosition = 0;
+                spilling = false;
+                return false;
+            }
+            // End of the segment, or a record torn by a crash
+            segments.pollFirst();
+            head.retire();
+        }
+    }
+
+    /**
+     * Releases the directory lock. Unread records stay on disk for the next run.
+     */
+    synchronized void close() {
+        closed = true;
+        for (Segment segment : segments) {
+            UNMAPPER.accept(segment.buffer);
+        }
+        segments.clear();
+        spilling = false;
+        try {
+            lock.release();
+            lockFile.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+    }
+
+    /**
+     * Encodes the line's header, marker and content into {@link #scratch}.
+     *
+     * @return number of encoded bytes
+     */
+    private int encode(QueuedLine line) {
+        String marker = line.marker;
+        byte[] header = line.header != null ? line.header : QueuedLine.NO_HEADER;
+        int maxLength = header.length + (marker != null ? 3 * marker.length() : 0)
+                + (line.text != null ? 3 * (line.textEnd - line.textStart) : line.length);
+        if (scratch.length < maxLength) {
+            scratch = new byte[maxLength];
+        }
+        System.arraycopy(header, 0, scratch, 0, header.length);
+        int position = header.length;
+        if (marker != null) {
+            position = Utf8.encode(marker, 0, marker.length(), scratch, position);
+        }
+        if (line.text != null) {
+            return Utf8.encode(line.text, line.textStart, line.textEnd, scratch, position);
+        }
+        System.arraycopy(line.bytes, 0, scratch, position, line.length);
+        return position + line.length;
+    }
+
+    /**
+     * Maps the segments found in the directory, oldest first. They are only read from,
+     * new lines always go to a new segment.
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        List<Segment> found = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                long sequence = sequenceOf(file.getName());
+                if (sequence < 0) {
+                    continue;
+                }
+                found.add(new Segment(file, sequence, map(file, (int) Math.min(file.length(), Integer.MAX_VALUE)), false));
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            }
+        }
+        Collections.sort(found, (a, b) -> Long.compare(a.sequence, b.sequence));
+        segments.addAll(found);
+        spilling = !segments.isEmpty();
+    }
+
+    private Segment createSegment() throws IOException {
+        if (!segments.isEmpty()) {
+            segments.peekLast().writable = false;
+        }
+        long sequence = nextSequence++;
+        File file = new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        Segment segment = new Segment(file, sequence, map(file, segmentBytes), true);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // The mapping stays valid after the channel is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static Consumer<MappedByteBuffer> unmapper() {
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not available, see below
+        }
+        try {
+            // Java 8
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                Object bufferCleaner = invoke(cleaner, buffer);
+                if (bufferCleaner != null) {
+                    invoke(clean, bufferCleaner);
+                }
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return buffer -> {};
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left to the garbage collector
+            return null;
+        }
+    }
+
+    private static long sequenceOf(String name) {
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        final long sequence;
+        final MappedByteBuffer buffer;
+        /**
+         * Whether lines are still appended to this segment; recovered and full segments
+         * are read only.
+         */
+        boolean writable;
+        int writePosition;
+        int readPosition;
+
+        Segment(File file, long sequence, MappedByteBuffer buffer, boolean writable) {
+            this.file = file;
+            this.sequence = sequence;
+            this.buffer = buffer;
+            this.writable = writable;
+        }
+
+        /**
+         * Unmaps and deletes the segment, whose buffer must not be used anymore.
+         */
+        void retire() {
+            UNMAPPER.accept(buffer);
+            // Should the file stay mapped and undeletable, it is replayed, and skipped,
+            // on the next run
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
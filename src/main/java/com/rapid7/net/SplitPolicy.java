@@ -0,0 +1,15 @@
+package com.rapid7.net;
+
+/**
+ * Determines what {@link AsyncLogger} does with a line longer than {@link AsyncLogger#LOG_LENGTH_LIMIT}.
+ */
+public enum SplitPolicy {
+    /**
+     * Sends the line as several consecutive lines, up to the configured maximum number of parts.
+     */
+    SPLIT,
+    /**
+     * Sends only the first part of the line and discards the rest.
+     */
+    TRUNCATE
+}
@@ -0,0 +1,116 @@
+package com.rapid7.net;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * SSL/TLS settings of the connections: the {@link SSLContext} creating them, and the
+ * protocols and cipher suites they may use.
+ * <p>
+ * Contexts are shared by all connections of the process, so that a connection reopened
+ * to the same endpoint resumes the TLS session of the previous one from the context's
+ * session cache, which saves a round trip and the key exchange. Unless a session cache
+ * size is given, the JVM's default context is used.
+ * <p>
+ * TLS 1.3 servers send their resumption tickets after the handshake, and the connections
+ * are never read, so sessions are only resumed once the protocols are limited to TLS 1.2.
+ */
+final class TlsSettings {
+
+    /**
+     * JVM defaults for everything.
+     */
+    static final TlsSettings DEFAULT = new TlsSettings(null, null, 0);
+
+    /**
+     * Contexts created by the library, by session cache size.
+     */
+    private static final ConcurrentMap<Integer, SSLContext> CONTEXTS = new ConcurrentHashMap<>();
+
+    private final String[] protocols;
+    private final String[] cipherSuites;
+    private final int sessionCacheSize;
+
+    /**
+     * @param protocols        protocols enabled, {@code null} for the JVM defaults
+     * @param cipherSuites     cipher suites enabled, {@code null} for the JVM defaults
+     * @param sessionCacheSize number of sessions cached for resumption, 0 to use the JVM's default context
+     */
+    TlsSettings(String[] protocols, String[] cipherSuites, int sessionCacheSize) {
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    static TlsSettings of(LoggerConfiguration configuration) {
+        if (configuration.getTlsProtocols() == null && configuration.getTlsCipherSuites() == null
+                && configuration.getTlsSessionCacheSize() <= 0) {
+            return DEFAULT;
+        }
+        return new TlsSettings(configuration.getTlsProtocols(), configuration.getTlsCipherSuites(),
+                configuration.getTlsSessionCacheSize());
+    }
+
+    /**
+     * Gets the shared context, created on first use.
+     */
+    SSLContext getContext() throws SSLException {
+        try {
+            if (sessionCacheSize <= 0) {
+                return SSLContext.getDefault();
+            }
+            SSLContext context = CONTEXTS.get(sessionCacheSize);
+            if (context == null) {
+                SSLContext created = SSLContext.getInstance("TLS");
+                created.init(null, null, null);
+                created.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+                context = CONTEXTS.putIfAbsent(sessionCacheSize, created);
+                if (context == null) {
+                    context = created;
+                }
+            }
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new SSLException(e);
+        }
+    }
+
+    /**
+     * Layers TLS over the connected socket, which is closed along with the returned one.
+     * The peer's host and port key the session cache.
+     */
+    SSLSocket createSocket(Socket socket, String host, int port) throws IOException {
+        SSLSocketFactory factory = getContext().getSocketFactory();
+        SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+        if (protocols != null) {
+            sslSocket.setEnabledProtocols(protocols);
+        }
+        if (cipherSuites != null) {
+            sslSocket.setEnabledCipherSuites(cipherSuites);
+        }
+        return sslSocket;
+    }
+
+    /**
+     * Creates a client engine for the peer, whose host and port key the session cache.
+     */
+    SSLEngine createEngine(String host, int port) throws SSLException {
+        SSLEngine engine = getContext().createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        if (protocols != null) {
+            engine.setEnabledProtocols(protocols);
+        }
+        if (cipherSuites != null) {
+            engine.setEnabledCipherSuites(cipherSuites);
+        }
+        return engine;
+    }
+}
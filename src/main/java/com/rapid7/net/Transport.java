@@ -0,0 +1,21 @@
+package com.rapid7.net;
+
+/**
+ * Network transport used to send lines to InsightOps.
+ */
+public enum Transport {
+    /**
+     * Blocking {@link java.net.Socket}, the sender thread waits for every write to complete.
+     */
+    SOCKET,
+    /**
+     * Non-blocking {@link java.nio.channels.SocketChannel} serviced by a shared selector thread.
+     * Writes to a slow peer are buffered, up to a limit, instead of stalling the sender.
+     */
+    NIO,
+    /**
+     * HTTP POST of every batch to the ingestion endpoint, optionally gzip compressed,
+     * over persistent connections with several requests in flight.
+     */
+    HTTP
+}
@@ -0,0 +1,92 @@
+package com.rapid7.net;
+
+/**
+ * Allocation-free UTF-8 encoding of character sequences.
+ * <p>
+ * Unpaired surrogates are encoded as {@code '?'}, the same way {@link String#getBytes} does.
+ */
+final class Utf8 {
+    private Utf8() {}
+
+    /**
+     * Returns the number of bytes needed to encode the given range.
+     *
+     * @param s     characters to encode
+     * @param start index of the first character
+     * @param end   index after the last character
+     * @return encoded length in bytes
+     */
+    static int encodedLength(CharSequence s, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes the given range into {@code dst}, which must have enough room for it.
+     *
+     * @param s      characters to encode
+     * @param start  index of the first character
+     * @param end    index after the last character
+     * @param dst    destination array
+     * @param offset position in {@code dst} to start writing at
+     * @return position in {@code dst} after the last written byte
+     */
+    static int encode(CharSequence s, int start, int end, byte[] dst, int offset) {
+        int pos = offset;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[pos++] = (byte) (0xC0 | (c >> 6));
+                dst[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                dst[pos++] = (byte) (0xF0 | (cp >> 18));
+                dst[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                dst[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                dst[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                dst[pos++] = (byte) '?';
+            } else {
+                dst[pos++] = (byte) (0xE0 | (c >> 12));
+                dst[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Moves {@code end} back so that it does not cut a multi-byte sequence in half.
+     *
+     * @param utf8  encoded bytes
+     * @param start first index that may be returned
+     * @param end   candidate cut position
+     * @return the largest code point boundary not after {@code end}, but after {@code start}
+     *         unless the range holds no boundary at all
+     */
+    static int codePointBoundary(byte[] utf8, int start, int end) {
+        int cut = end;
+        // Continuation bytes look like 10xxxxxx
+        while (cut > start && (utf8[cut] & 0xC0) == 0x80) {
+            cut--;
+        }
+        return cut > start ? cut : end;
+    }
+}
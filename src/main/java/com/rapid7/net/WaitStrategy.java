@@ -0,0 +1,23 @@
+package com.rapid7.net;
+
+/**
+ * Determines how threads wait on the {@link AsyncLogger} queue, either the sender waiting
+ * for lines or a logging thread waiting for space with {@link OverflowPolicy#BLOCK}.
+ */
+public enum WaitStrategy {
+    /**
+     * Parks the waiting thread until it is signalled. Lowest CPU usage, producers only pay
+     * for the signal while the sender is idle.
+     */
+    BLOCKING,
+    /**
+     * Spins briefly and then yields the CPU between checks. Lower latency than
+     * {@link #BLOCKING} at the cost of some CPU while idle.
+     */
+    YIELDING,
+    /**
+     * Spins continuously. Lowest latency, but keeps a core busy; only useful when a core
+     * can be dedicated to the sender.
+     */
+    BUSY_SPIN
+}
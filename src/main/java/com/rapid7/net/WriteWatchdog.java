@@ -0,0 +1,72 @@
+package com.rapid7.net;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Aborts writes which have stalled, by closing their connection so that the write fails
+ * and the sender reconnects.
+ * <p>
+ * A blocking socket write has no timeout of its own: on a half-open connection it waits
+ * for TCP to give up retransmitting, which takes many minutes while the queue overflows.
+ * The connections are checked by a daemon thread running only while there are
+ * connections to watch.
+ */
+final class WriteWatchdog {
+
+    /**
+     * How often the writes in progress are checked.
+     */
+    static final long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final List<AsyncLogger.SocketAppender> WATCHED = new CopyOnWriteArrayList<>();
+
+    /**
+     * Thread checking the writes, {@code null} while there is nothing to watch. Guarded by the class.
+     */
+    private static Thread checker;
+
+    private WriteWatchdog() {}
+
+    /**
+     * Starts checking the writes of the connection, starting the thread if needed.
+     */
+    static synchronized void watch(AsyncLogger.SocketAppender appender) {
+        WATCHED.add(appender);
+        if (checker == null) {
+            checker = new Thread(WriteWatchdog::check, "InsightOps write watchdog");
+            // Don't block shut down
+            checker.setDaemon(true);
+            checker.start();
+        }
+    }
+
+    /**
+     * Stops checking the writes of the connection, stopping the thread once none are left.
+     */
+    static synchronized void unwatch(AsyncLogger.SocketAppender appender) {
+        WATCHED.remove(appender);
+        if (WATCHED.isEmpty() && checker != null) {
+            checker.interrupt();
+            checker = null;
+        }
+    }
+
+    //  VisibleForTesting
+    static synchronized Thread checker() {
+        return checker;
+    }
+
+    private static void check() {
+        final Thread self = Thread.currentThread();
+        while (!self.isInterrupted()) {
+            LockSupport.parkNanos(CHECK_INTERVAL_NANOS);
+            final long now = System.nanoTime();
+            for (AsyncLogger.SocketAppender appender : WATCHED) {
+                appender.abortStalledWrite(now);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.rapid7.net;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events of the logging pipeline.
+ * <p>
+ * Each method creates its event only to check whether a recording enables it, which the
+ * JIT compiles down to a flag check when it does not.
+ */
+final class PipelineEvents {
+
+    private static final String CATEGORY = "InsightOps";
+
+    private PipelineEvents() {}
+
+    static void enqueued(int size) {
+        EnqueueEvent event = new EnqueueEvent();
+        if (event.isEnabled()) {
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    static void dropped(OverflowPolicy policy) {
+        DropEvent event = new DropEvent();
+        if (event.isEnabled()) {
+            event.policy = policy.name();
+            event.commit();
+        }
+    }
+
+    static void split(int parts, int sent) {
+        SplitEvent event = new SplitEvent();
+        if (event.isEnabled()) {
+            event.parts = parts;
+            event.sent = sent;
+            event.commit();
+        }
+    }
+
+    static void batchWritten(int lines, int bytes, long nanos) {
+        BatchWriteEvent event = new BatchWriteEvent();
+        if (event.isEnabled()) {
+            event.lines = lines;
+            event.bytes = bytes;
+            event.writeTime = nanos;
+            event.commit();
+        }
+    }
+
+    static void connected(String host, int port, long connectNanos, long handshakeNanos) {
+        ConnectEvent event = new ConnectEvent();
+        if (event.isEnabled()) {
+            event.host = host;
+            event.port = port;
+            event.connectTime = connectNanos;
+            event.handshakeTime = handshakeNanos;
+            event.commit();
+        }
+    }
+
+    static void reconnectBackoff(long delayMs) {
+        BackoffEvent event = new BackoffEvent();
+        if (event.isEnabled()) {
+            event.delay = delayMs;
+            event.commit();
+        }
+    }
+
+    @Name("com.rapid7.insightops.Enqueue")
+    @Label("Log Line Enqueued")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class EnqueueEvent extends Event {
+        @Label("Size")
+        @Description("Size of the line in characters or bytes")
+        int size;
+    }
+
+    @Name("com.rapid7.insightops.Drop")
+    @Label("Log Line Dropped")
+    @Category(CATEGORY)
+    static final class DropEvent extends Event {
+        @Label("Overflow Policy")
+        String policy;
+    }
+
+    @Name("com.rapid7.insightops.Split")
+    @Label("Log Line Split")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class SplitEvent extends Event {
+        @Label("Parts")
+        int parts;
+        @Label("Parts Sent")
+        int sent;
+    }
+
+    @Name("com.rapid7.insightops.BatchWrite")
+    @Label("Log Batch Written")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class BatchWriteEvent extends Event {
+        @Label("Lines")
+        int lines;
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+        @Label("Write Time")
+        @Timespan
+        long writeTime;
+    }
+
+    @Name("com.rapid7.insightops.Connect")
+    @Label("Log Connection Opened")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ConnectEvent extends Event {
+        @Label("Host")
+        String host;
+        @Label("Port")
+        int port;
+        @Label("Connect Time")
+        @Timespan
+        long connectTime;
+        @Label("TLS Handshake Time")
+        @Timespan
+        long handshakeTime;
+    }
+
+    @Name("com.rapid7.insightops.ReconnectBackoff")
+    @Label("Log Reconnect Backoff")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class BackoffEvent extends Event {
+        @Label("Delay")
+        @Timespan(Timespan.MILLISECONDS)
+        long delay;
+    }
+}
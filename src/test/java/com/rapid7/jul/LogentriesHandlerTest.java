@@ -1,14 +1,22 @@
 package com.rapid7.jul;
 
 
+import com.rapid7.util.AllocationMeter;
+import com.rapid7.util.IngestStub;
 import com.rapid7.util.SocketChannelReceiver;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 import static com.rapid7.util.LogMessageValidator.validateLogMessage;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class LogentriesHandlerTest {
 
@@ -18,6 +26,11 @@ public class LogentriesHandlerTest {
     }
 
     private static final String EMPTY_PREFIX = "";
+    /**
+     * Budget for publishing one record once warmed up, measured at about 4.7KB, nearly all of it
+     * String.format and the date in {@link java.util.logging.SimpleFormatter}.
+     */
+    private static final double MAX_BYTES_PER_PUBLISH = 6144;
 
     /**
      * This test needs the unit_test_key_store.jks certificate to be added to Trust Store, this is done in the pom.xml
@@ -88,4 +101,61 @@ public class LogentriesHandlerTest {
         }
     }
 
+    @Test
+    public void testPublishAllocationsStayWithinBudget() throws Exception {
+        final String token = "0c7407d4-fd0d-4436-bb50-44f1266b4490";
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            final String prefix = LogentriesHandler.class.getName();
+            final String configuration = prefix + ".token=" + token + "\n"
+                    + prefix + ".region=eu\n"
+                    + prefix + ".host=" + stub.getHost() + "\n"
+                    + prefix + ".port=" + stub.getPort() + "\n"
+                    + prefix + ".ssl=false\n"
+                    + prefix + ".jmx=false\n";
+            LogManager.getLogManager().readConfiguration(new ByteArrayInputStream(configuration.getBytes(ISO_8859_1)));
+            final LogentriesHandler handler = new LogentriesHandler();
+            final LogRecord record = new LogRecord(Level.INFO, "a message of a typical length, logged again and again");
+            record.setLoggerName("allocation");
+            // As set by the logger, saves the formatter looking for the caller
+            record.setSourceClassName(LogentriesHandlerTest.class.getName());
+            record.setSourceMethodName("testPublishAllocationsStayWithinBudget");
+            final long[] published = {1};
+            try {
+                double bytes = AllocationMeter.bytesPerRun(() -> {
+                    handler.publish(record);
+                    published[0]++;
+                }, () -> assertTrue(stub.awaitLines(token, published[0], 5000)));
+                assertTrue(bytes <= MAX_BYTES_PER_PUBLISH, "publishing allocated " + bytes + " bytes per record");
+            } finally {
+                handler.close();
+            }
+        }
+    }
+
+    @Test
+    public void testFlushOnlyWaitsBriefly() throws Exception {
+        final String token = "0c7407d4-fd0d-4436-bb50-44f1266b4490";
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            stub.refuseConnections(true);
+            final String prefix = LogentriesHandler.class.getName();
+            final String configuration = prefix + ".token=" + token + "\n"
+                    + prefix + ".region=eu\n"
+                    + prefix + ".host=" + stub.getHost() + "\n"
+                    + prefix + ".port=" + stub.getPort() + "\n"
+                    + prefix + ".ssl=false\n"
+                    + prefix + ".closeTimeoutMs=5000\n";
+            LogManager.getLogManager().readConfiguration(new ByteArrayInputStream(configuration.getBytes(ISO_8859_1)));
+            final LogentriesHandler handler = new LogentriesHandler();
+            try {
+                handler.publish(new LogRecord(Level.INFO, "not sent yet"));
+                final long start = System.nanoTime();
+                handler.flush();
+                final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue(elapsedMs < 1000, "flush should not wait for the close timeout, waited " + elapsedMs + " ms");
+            } finally {
+                stub.refuseConnections(false);
+                handler.close();
+            }
+        }
+    }
 }
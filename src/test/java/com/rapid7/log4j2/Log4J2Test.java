@@ -1,15 +1,23 @@
 package com.rapid7.log4j2;
 
+import com.rapid7.util.AllocationMeter;
+import com.rapid7.util.IngestStub;
 import com.rapid7.util.SocketChannelReceiver;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.LoggerContext;
 import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static com.rapid7.util.LogMessageValidator.validateLogMessage;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Test the Log4J2 appender.
@@ -18,6 +26,11 @@ import static com.rapid7.util.LogMessageValidator.validateLogMessage;
 public class Log4J2Test {
     private LoggerContext loggerContext;
     private static final String EMPTY_PREFIX = "";
+    /**
+     * Budget for appending one event once warmed up, measured at about 150 bytes: the formatted
+     * String the layout hands over to the manager.
+     */
+    private static final double MAX_BYTES_PER_APPEND = 256;
 
     @BeforeEach
     public void setUp() {
@@ -46,5 +59,26 @@ public class Log4J2Test {
         }
     }
 
-
+    @Test
+    public void testAppendAllocationsStayWithinBudget() throws Exception {
+        final String token = "0c7407d4-fd0d-4436-bb50-44f1266b4490";
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            System.setProperty("insightops.test.token", token);
+            System.setProperty("insightops.test.host", stub.getHost());
+            System.setProperty("insightops.test.port", Integer.toString(stub.getPort()));
+            loggerContext.setConfigLocation(getClass().getResource("/log4j2-allocation-test.xml").toURI());
+            final Appender appender = loggerContext.getConfiguration().getAppender("allocation");
+            final LogEvent event = Log4jLogEvent.newBuilder()
+                    .setLoggerName("allocation")
+                    .setLevel(Level.INFO)
+                    .setMessage(new SimpleMessage("a message of a typical length, logged again and again"))
+                    .build();
+            final long[] appended = {1};
+            double bytes = AllocationMeter.bytesPerRun(() -> {
+                appender.append(event);
+                appended[0]++;
+            }, () -> assertTrue(stub.awaitLines(token, appended[0], 5000)));
+            assertTrue(bytes <= MAX_BYTES_PER_APPEND, "appending allocated " + bytes + " bytes per event");
+        }
+    }
 }
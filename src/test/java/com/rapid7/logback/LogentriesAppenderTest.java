@@ -7,6 +7,8 @@ import ch.qos.logback.classic.spi.LoggingEvent;
 import ch.qos.logback.core.Context;
 import ch.qos.logback.core.Layout;
 import ch.qos.logback.core.layout.EchoLayout;
+import com.rapid7.util.AllocationMeter;
+import com.rapid7.util.IngestStub;
 import com.rapid7.util.SocketChannelReceiver;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
@@ -14,8 +16,11 @@ import org.slf4j.LoggerFactory;
 
 import static com.rapid7.util.LogMessageValidator.validateLogMessage;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -32,8 +37,14 @@ public class LogentriesAppenderTest {
     private static final String facility = "kern";
     private static final Context context = new LoggerContext();
     private static final int port = 1000;
+    private static final String VALID_TOKEN = "0c7407d4-fd0d-4436-bb50-44f1266b4490";
 
     private static final String EMPTY_PREFIX = "";
+    /**
+     * Budget for appending one event once warmed up, measured at about 720 bytes: the formatted
+     * String and the bytes logback's layout builds on the way.
+     */
+    private static final double MAX_BYTES_PER_APPEND = 1024;
 
     @Test
     public void setterTests() {
@@ -72,18 +83,40 @@ public class LogentriesAppenderTest {
     }
 
     @Test
-    public void testSetCustomLayout() {
+    public void testSetCustomLayout() throws Exception {
         Layout<ILoggingEvent> layout = mock(EchoLayout.class);
         LoggingEvent loggingEvent = buildLoggingEvent();
 
         when(layout.doLayout(loggingEvent)).thenReturn("formattedText");
 
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            LogentriesAppender logentriesAppender = buildLogentriesAppender();
+            // Events are only formatted with a valid configuration
+            logentriesAppender.setHttpPut(false);
+            logentriesAppender.setToken(VALID_TOKEN);
+            logentriesAppender.setSsl(false);
+            logentriesAppender.setDataHubAddr(stub.getHost());
+            logentriesAppender.setDataHubPort(stub.getPort());
+            logentriesAppender.setLayout(layout);
+            logentriesAppender.start();
+            logentriesAppender.append(loggingEvent);
+            logentriesAppender.stop();
+        }
+
+        verify(layout).doLayout(eq(loggingEvent));
+    }
+
+    @Test
+    public void testDisabledAppenderDoesNotFormatEvents() {
+        Layout<ILoggingEvent> layout = mock(EchoLayout.class);
+
+        // The account key is not valid
         LogentriesAppender logentriesAppender = buildLogentriesAppender();
         logentriesAppender.setLayout(layout);
         logentriesAppender.start();
-        logentriesAppender.append(loggingEvent);
+        logentriesAppender.append(buildLoggingEvent());
 
-        verify(layout).doLayout(eq(loggingEvent));
+        verify(layout, never()).doLayout(any());
     }
 
     private LoggingEvent buildLoggingEvent() {
@@ -115,4 +148,32 @@ public class LogentriesAppenderTest {
         return le;
     }
 
+    @Test
+    public void testAppendAllocationsStayWithinBudget() throws Exception {
+        final String token = "0c7407d4-fd0d-4436-bb50-44f1266b4490";
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            LoggerContext loggerContext = new LoggerContext();
+            LogentriesAppender le = new LogentriesAppender();
+            le.setContext(loggerContext);
+            le.setToken(token);
+            le.setRegion("eu");
+            le.setSsl(false);
+            le.setDataHubAddr(stub.getHost());
+            le.setDataHubPort(stub.getPort());
+            le.setFacility("USER");
+            le.setJmx(false);
+            le.start();
+            final ILoggingEvent event = new LoggingEvent("fqcn", loggerContext.getLogger("allocation"), Level.INFO, "a message of a typical length, logged again and again", null, null);
+            final long[] appended = {1};
+            try {
+                double bytes = AllocationMeter.bytesPerRun(() -> {
+                    le.doAppend(event);
+                    appended[0]++;
+                }, () -> assertTrue(stub.awaitLines(token, appended[0], 5000)));
+                assertTrue(bytes <= MAX_BYTES_PER_APPEND, "appending allocated " + bytes + " bytes per event");
+            } finally {
+                le.stop();
+            }
+        }
+    }
 }
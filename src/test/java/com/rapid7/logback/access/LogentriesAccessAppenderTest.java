@@ -6,6 +6,7 @@ import ch.qos.logback.access.spi.AccessContext;
 import ch.qos.logback.access.spi.ServerAdapter;
 import ch.qos.logback.core.Layout;
 import ch.qos.logback.core.layout.EchoLayout;
+import com.rapid7.util.IngestStub;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -25,6 +26,7 @@ public class LogentriesAccessAppenderTest {
     private static final String region = "some-region";
     private static final String location = "some location";
     private static final String accountKey = "account key";
+    private static final String VALID_TOKEN = "0c7407d4-fd0d-4436-bb50-44f1266b4490";
 
     @Test
     public void setterTests() {
@@ -37,16 +39,25 @@ public class LogentriesAccessAppenderTest {
     }
 
     @Test
-    public void testSetCustomLayout() {
+    public void testSetCustomLayout() throws Exception {
         Layout<IAccessEvent> layout = mock(EchoLayout.class);
         AccessEvent accessEvent = buildAccessEvent();
 
         when(layout.doLayout(accessEvent)).thenReturn("formattedText");
 
-        LogentriesAccessAppender logentriesAccessAppender = buildLogentriesAccessAppender();
-        logentriesAccessAppender.setLayout(layout);
-        logentriesAccessAppender.start();
-        logentriesAccessAppender.append(accessEvent);
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            LogentriesAccessAppender logentriesAccessAppender = buildLogentriesAccessAppender();
+            // Events are only formatted with a valid configuration
+            logentriesAccessAppender.setHttpPut(false);
+            logentriesAccessAppender.setToken(VALID_TOKEN);
+            logentriesAccessAppender.setSsl(false);
+            logentriesAccessAppender.setDataHubAddr(stub.getHost());
+            logentriesAccessAppender.setDataHubPort(stub.getPort());
+            logentriesAccessAppender.setLayout(layout);
+            logentriesAccessAppender.start();
+            logentriesAccessAppender.append(accessEvent);
+            logentriesAccessAppender.stop();
+        }
 
         verify(layout).doLayout(eq(accessEvent));
     }
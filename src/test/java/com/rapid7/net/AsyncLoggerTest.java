@@ -1,20 +1,50 @@
 package com.rapid7.net;
 
+import com.rapid7.util.AllocationMeter;
+import com.rapid7.util.IngestStub;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
 
 public class AsyncLoggerTest {
 
     private static final String VALID_UUID = "a7ac14c3-2cc9-4f09-8fb3-73c5523e065c";
+    /**
+     * Lines are pooled, so queueing one allocates nothing once warmed up; the slack only
+     * absorbs the odd allocation by the JVM itself.
+     */
+    private static final double MAX_BYTES_PER_LINE = 1;
 
     private final AsyncLogger TEST_LOGGER = new AsyncLogger(
             new LoggerConfiguration.Builder()
@@ -165,4 +195,781 @@ public class AsyncLoggerTest {
             TEST_LOGGER.getAppender().reopenConnection();
         });
     }
+
+    @Test
+    public void testBatchConfiguration() {
+        AsyncLogger async = new AsyncLogger(new LoggerConfiguration.Builder().build());
+        assertEquals(LoggerConfiguration.DEFAULT_BATCH_SIZE, async.getBatchSize(), "default batch size should be used");
+        assertEquals(LoggerConfiguration.DEFAULT_BATCH_BYTES, async.getBatchBytes(), "default batch bytes should be used");
+        assertEquals(LoggerConfiguration.DEFAULT_LINGER_MS, async.getLingerMs(), "linger should be disabled by default");
+
+        AsyncLogger custom = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .withBatchSize(10)
+                        .withBatchBytes(1024)
+                        .withLingerMs(5)
+                        .build());
+        assertEquals(10, custom.getBatchSize());
+        assertEquals(1024, custom.getBatchBytes());
+        assertEquals(5, custom.getLingerMs());
+    }
+
+    @Test
+    public void testQueuedLinesAreWrittenAsOneBatch() throws Exception {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .useToken(VALID_UUID)
+                        .inRegion("eu")
+                        .withLingerMs(500)
+                        .build());
+        InsightOpsClient client = mock(InsightOpsClient.class);
+        async.getAppender().iopsClient = client;
+        try {
+            async.addLineToQueue("first");
+            async.addLineToQueue("second");
+            async.addLineToQueue("third");
+
+            ArgumentCaptor<byte[]> bytes = ArgumentCaptor.forClass(byte[].class);
+            ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+            verify(client, timeout(2000)).write(bytes.capture(), eq(0), length.capture());
+            String written = new String(bytes.getValue(), 0, length.getValue(), StandardCharsets.UTF_8);
+            assertEquals(4, written.split("\n").length, "library id and all three lines should share one write");
+            assertTrue(written.endsWith(VALID_UUID + "third\n"));
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testOverflowPoliciesCountDrops() {
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            // Nothing sends the lines, so the queue fills up
+            AsyncLogger async = new AsyncLogger(
+                    new LoggerConfiguration.Builder()
+                            .withQueueCapacity(2)
+                            .withOverflowPolicy(policy)
+                            .withBlockTimeoutMs(10)
+                            .build()).holdingLines();
+            assertEquals(2, async.getQueueCapacity());
+            async.addLineToQueue("fits");
+            assertEquals(0, async.getDroppedLines(), policy + " should not drop while there is space");
+            async.addLineToQueue("overflows");
+            assertEquals(1, async.getDroppedLines(), policy + " should count one dropped line");
+        }
+    }
+
+    @Test
+    public void testCallerRunsWritesSynchronously() throws Exception {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .withQueueCapacity(2)
+                        .withOverflowPolicy(OverflowPolicy.CALLER_RUNS)
+                        .build()).holdingLines();
+        InsightOpsClient client = mock(InsightOpsClient.class);
+        async.getAppender().iopsClient = client;
+        async.addLineToQueue("queued");
+        async.addLineToQueue("written by caller");
+        verify(client).write(any(byte[].class), eq(0), anyInt());
+        assertEquals(0, async.getDroppedLines());
+    }
+
+    @Test
+    public void testByteAndCharSequenceLinesAreSentVerbatim() throws Exception {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .useToken(VALID_UUID)
+                        .inRegion("eu")
+                        .withLingerMs(500)
+                        .build());
+        InsightOpsClient client = mock(InsightOpsClient.class);
+        async.getAppender().iopsClient = client;
+        try {
+            async.addLineToQueue("multi\nline".getBytes(StandardCharsets.UTF_8));
+            ByteBuffer direct = ByteBuffer.allocateDirect(16);
+            direct.put("caf\u00e9".getBytes(StandardCharsets.UTF_8)).flip();
+            async.addLineToQueue(direct);
+            assertEquals(0, direct.position(), "the buffer position should not change");
+            StringBuilder builder = new StringBuilder("\u20ac \ud834\udd1e");
+            async.addLineToQueue(builder);
+            builder.setLength(0);
+
+            ArgumentCaptor<byte[]> bytes = ArgumentCaptor.forClass(byte[].class);
+            ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+            verify(client, timeout(2000)).write(bytes.capture(), eq(0), length.capture());
+            String written = new String(bytes.getValue(), 0, length.getValue(), StandardCharsets.UTF_8);
+            assertTrue(written.endsWith(VALID_UUID + "multi\u2028line\n"
+                    + VALID_UUID + "caf\u00e9\n"
+                    + VALID_UUID + "\u20ac \ud834\udd1e\n"), written);
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testOversizeByteMessageIsSplitOnCharacterBoundaries() {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .withQueueCapacity(8)
+                        .build());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < AsyncLogger.LOG_LENGTH_LIMIT; i++) {
+            sb.append('\u00e9');
+        }
+        async.addLineToQueue(sb.toString().getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, async.getDroppedLines(), "two byte characters should be split into two lines");
+    }
+
+    @Test
+    public void testOversizeMessagesAreTruncatedByPolicy() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3 * AsyncLogger.LOG_LENGTH_LIMIT; i++) {
+            sb.append('x');
+        }
+        String line = sb.toString();
+
+        AsyncLogger split = new AsyncLogger(new LoggerConfiguration.Builder().build()).holdingLines();
+        split.addLineToQueue(line);
+        assertEquals(0, split.getTruncatedLines(), "three parts fit the default part limit");
+
+        AsyncLogger truncate = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .withSplitPolicy(SplitPolicy.TRUNCATE)
+                        .build()).holdingLines();
+        truncate.addLineToQueue(line);
+        assertEquals(1, truncate.getTruncatedLines());
+
+        AsyncLogger limited = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .withMaxSplitParts(2)
+                        .useContinuationMarkers(true)
+                        .build()).holdingLines();
+        limited.addLineToQueue(line.getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, limited.getTruncatedLines());
+    }
+
+    @Test
+    public void testQueueIsBoundedByBytes() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append('x');
+        }
+        String line = sb.toString();
+
+        AsyncLogger dropNewest = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .withQueueBytes(1024)
+                        .withOverflowPolicy(OverflowPolicy.DROP_NEWEST)
+                        .build()).holdingLines();
+        assertEquals(1024, dropNewest.getMaxQueuedBytes());
+        long identifier = dropNewest.getQueuedBytes();
+        assertTrue(identifier > 0, "the library identifier should be counted");
+        dropNewest.addLineToQueue(line);
+        assertEquals(1, dropNewest.getDroppedLines(), "the line should not fit in the byte budget");
+        assertEquals(identifier, dropNewest.getQueuedBytes());
+        assertEquals(1, dropNewest.getQueueSize());
+
+        AsyncLogger dropOldest = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .withQueueBytes(1024)
+                        .withOverflowPolicy(OverflowPolicy.DROP_OLDEST)
+                        .build()).holdingLines();
+        dropOldest.addLineToQueue(line);
+        assertEquals(1, dropOldest.getDroppedLines(), "the identifier should make room for the line");
+        assertEquals(1, dropOldest.getQueueSize());
+        assertTrue(dropOldest.getQueuedBytes() > 1024, "a line larger than the budget is accepted on an empty queue");
+    }
+
+    @Test
+    public void testFullQueueSpillsToDisk(@TempDir File directory) {
+        // Nothing sends the lines, so the queue fills up
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .withQueueCapacity(4)
+                        .withSpillDirectory(directory.getPath())
+                        .build()).holdingLines();
+        try {
+            for (int i = 0; i < 100; i++) {
+                async.addLineToQueue("line " + i);
+            }
+            assertEquals(0, async.getDroppedLines());
+            assertTrue(async.isSpilling());
+            assertEquals(3, async.getQueueSize(), "the queue should fill up to its watermark before spilling");
+            assertEquals(98, async.getSpilledLines());
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testFullJournalAppliesTheBlockPolicy(@TempDir File directory) {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .withQueueCapacity(4)
+                        .withOverflowPolicy(OverflowPolicy.BLOCK)
+                        .withBlockTimeoutMs(10)
+                        .withSpillDirectory(directory.getPath())
+                        .withSpillSegmentBytes(SpillJournal.MIN_SEGMENT_BYTES)
+                        .withSpillMaxBytes(SpillJournal.MIN_SEGMENT_BYTES)
+                        .build()).holdingLines();
+        char[] chars = new char[50000];
+        Arrays.fill(chars, 'x');
+        String line = new String(chars);
+        try {
+            for (int i = 0; i < 40; i++) {
+                async.addLineToQueue(line);
+            }
+            assertTrue(async.getSpilledLines() > 0);
+            assertEquals(4, async.getQueueSize(), "the line not fitting in the journal should wait for the queue");
+            assertEquals(40 + 1 - async.getSpilledLines() - 4, async.getDroppedLines(),
+                    "only lines finding no room in the queue either should be dropped");
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testLinesAreShardedAcrossConnections() {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .withConnections(3)
+                        .withQueueCapacity(96)
+                        .withShardingKey(ShardingKey.LOGGER)
+                        .build()).holdingLines();
+        assertEquals(3, async.getConnections());
+        assertEquals(3, async.getQueueSize(), "every connection should start with the library identifier");
+        for (int i = 0; i < 10; i++) {
+            async.addLineToQueue("line " + i, "com.example.Service");
+        }
+        int withLines = 0;
+        for (int i = 0; i < 3; i++) {
+            int size = async.getAppender(i).queue.size();
+            assertTrue(size == 1 || size == 11, "lines of one logger should stay on one connection");
+            if (size == 11) {
+                withLines++;
+            }
+        }
+        assertEquals(1, withLines);
+    }
+
+    @Test
+    public void testLoggersShareTheConnectionToTheirDestination() {
+        LoggerConfiguration.Builder builder = new LoggerConfiguration.Builder()
+                .inRegion("eu")
+                .useSharedConnection(true);
+        AsyncLogger first = new AsyncLogger(builder.setLogIdPrefix("first").build()).holdingLines();
+        AsyncLogger second = new AsyncLogger(builder.setLogIdPrefix("second").build()).holdingLines();
+        try {
+            assertTrue(first.isSharedConnection());
+            assertTrue(first.getAppender() == second.getAppender(), "both loggers should use the same sender");
+            assertEquals(0, first.getQueueSize(), "the library identifier should wait for a logger to be found valid");
+
+            first.addLineToQueue("from first");
+            second.addLineToQueue("from second");
+            assertEquals(2, second.getQueueSize());
+
+            QueuedLine line = first.getAppender().queue.poll();
+            assertTrue(new String(line.header, StandardCharsets.UTF_8).startsWith("first"), "lines should carry their logger's prefix");
+            line = first.getAppender().queue.poll();
+            assertTrue(new String(line.header, StandardCharsets.UTF_8).startsWith("second"), "lines should carry their logger's prefix");
+        } finally {
+            first.close();
+        }
+        AsyncLogger.SocketAppender sender = second.getAppender();
+        AsyncLogger third = new AsyncLogger(builder.build());
+        assertTrue(sender == third.getAppender(), "the sender should stay open while a logger uses it");
+        second.close();
+        third.close();
+
+        AsyncLogger fourth = new AsyncLogger(builder.build());
+        assertFalse(sender == fourth.getAppender(), "a closed sender should not be reused");
+        AsyncLogger fifth = new AsyncLogger(builder.withConnectTimeoutMs(1234).build());
+        assertFalse(fourth.getAppender() == fifth.getAppender(), "loggers with other connection settings should not share");
+        fifth.close();
+        fourth.close();
+    }
+
+    @Test
+    public void testSharedSenderHasNoMBeanOfItsOwn() throws Exception {
+        LoggerConfiguration configuration = new LoggerConfiguration.Builder()
+                .useToken(VALID_UUID)
+                .inRegion("eu")
+                .useSharedConnection(true)
+                .build();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("com.rapid7.net:type=AsyncLogger,*");
+        int before = server.queryNames(pattern, null).size();
+        AsyncLogger first = new AsyncLogger(configuration);
+        AsyncLogger second = new AsyncLogger(configuration);
+        try {
+            assertEquals(before + 2, server.queryNames(pattern, null).size(), "only the loggers should register an MBean");
+        } finally {
+            second.close();
+            first.close();
+        }
+    }
+
+    @Test
+    public void testEveryTokenSharingTheSenderIsIdentified() throws Exception {
+        String otherToken = "0c7407d4-fd0d-4436-bb50-44f1266b4490";
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            AsyncLogger first = new AsyncLogger(sendingTo(stub).useSharedConnection(true).build());
+            AsyncLogger second = new AsyncLogger(sendingTo(stub).useSharedConnection(true).useToken(otherToken).build());
+            AsyncLogger third = new AsyncLogger(sendingTo(stub).useSharedConnection(true).useToken(otherToken).build());
+            try {
+                assertTrue(first.getAppender() == second.getAppender(), "both loggers should use the same sender");
+                first.addLineToQueue("from first");
+                second.addLineToQueue("from second");
+                third.addLineToQueue("from third");
+                assertTrue(stub.awaitLines(VALID_UUID, 2, 5000), "library id and line should be received");
+                assertTrue(stub.awaitLines(otherToken, 3, 5000), "library id and lines should be received");
+                Thread.sleep(200);
+                assertEquals(3, stub.getLines(otherToken), "the library id should be sent once per token");
+            } finally {
+                third.close();
+                second.close();
+                first.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSenderPoolServesEveryLogger() throws Exception {
+        LoggerConfiguration configuration = new LoggerConfiguration.Builder()
+                .useToken(VALID_UUID)
+                .inRegion("eu")
+                .useSenderPool(true)
+                .build();
+        AsyncLogger first = new AsyncLogger(configuration);
+        AsyncLogger second = new AsyncLogger(configuration);
+        InsightOpsClient firstClient = mock(InsightOpsClient.class);
+        InsightOpsClient secondClient = mock(InsightOpsClient.class);
+        first.getAppender().iopsClient = firstClient;
+        second.getAppender().iopsClient = secondClient;
+        try {
+            first.addLineToQueue("to first");
+            second.addLineToQueue("to second");
+
+            assertTrue(first.flush(2000), "lines should be written");
+            assertTrue(second.flush(2000), "lines should be written");
+
+            // The library id may have been written on its own first
+            ArgumentCaptor<byte[]> bytes = ArgumentCaptor.forClass(byte[].class);
+            ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+            verify(firstClient, atLeastOnce()).write(bytes.capture(), eq(0), length.capture());
+            assertTrue(new String(bytes.getValue(), 0, length.getValue(), StandardCharsets.UTF_8).endsWith(VALID_UUID + "to first\n"));
+            verify(secondClient, atLeastOnce()).write(bytes.capture(), eq(0), length.capture());
+            assertTrue(new String(bytes.getValue(), 0, length.getValue(), StandardCharsets.UTF_8).endsWith(VALID_UUID + "to second\n"));
+
+            assertFalse(first.getAppender().isAlive(), "no thread should be started for the connection");
+            assertEquals(Integer.valueOf(0), first.getSenderPoolBacklog().get(first.getAppender().getName()));
+            assertTrue(first.getSenderPoolBacklog().containsKey(second.getAppender().getName()), "the backlog should cover the whole pool");
+        } finally {
+            first.close();
+            second.close();
+        }
+        // Once before connecting, once after the logger is closed
+        verify(firstClient, timeout(2000).times(2)).close();
+    }
+
+    @Test
+    public void testSenderPoolStopsWithTheLastConnection() throws Exception {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .useToken(VALID_UUID)
+                        .inRegion("eu")
+                        .useSenderPool(true)
+                        .build());
+        async.getAppender().iopsClient = mock(InsightOpsClient.class);
+        try {
+            async.addLineToQueue("pooled");
+            assertTrue(async.flush(2000), "lines should be written");
+            assertNotNull(SenderPool.running(), "the pool should run while a connection uses it");
+        } finally {
+            async.close();
+        }
+        assertNull(SenderPool.running(), "the pool should stop with the last connection");
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("InsightOps sender pool")) {
+                thread.join(10000);
+                assertFalse(thread.isAlive(), thread.getName() + " should stop with the last connection");
+            }
+        }
+    }
+
+    @Test
+    public void testSenderPoolIsNotHeldBackByAnUnreachableEndpoint() throws Exception {
+        try (IngestStub dead = IngestStub.start(IngestStub.Mode.TLS);
+             IngestStub live = IngestStub.start(IngestStub.Mode.TCP)) {
+            dead.delayHandshakes(10000);
+            List<AsyncLogger> unreachable = new ArrayList<>();
+            AsyncLogger reachable = null;
+            try {
+                reachable = new AsyncLogger(sendingTo(live).useSenderPool(true).build());
+                reachable.addLineToQueue("connected");
+                assertTrue(live.awaitLines(VALID_UUID, 2, 5000), "library id and line should be received");
+                final SenderPool.Worker worker = reachable.getAppender().worker;
+                // Until one shares the pool thread of the reachable connection
+                while (unreachable.stream().noneMatch(async -> async.getAppender().worker == worker)) {
+                    assertTrue(unreachable.size() < 16 * SenderPool.THREADS, "connections should be spread over the pool");
+                    AsyncLogger async = new AsyncLogger(sendingTo(dead)
+                            .useSSL(true)
+                            .useSenderPool(true)
+                            .withConnectTimeoutMs(5000)
+                            .build());
+                    unreachable.add(async);
+                    async.addLineToQueue("never sent");
+                }
+
+                reachable.addLineToQueue("sent");
+                assertTrue(live.awaitLines(VALID_UUID, 3, 2000), "lines should be sent while the other handshakes hang");
+            } finally {
+                if (reachable != null) {
+                    reachable.close();
+                }
+                for (AsyncLogger async : unreachable) {
+                    async.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFlushWaitsForQueuedLines() throws Exception {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .useToken(VALID_UUID)
+                        .inRegion("eu")
+                        .withLingerMs(200)
+                        .build());
+        InsightOpsClient client = mock(InsightOpsClient.class);
+        async.getAppender().iopsClient = client;
+        try {
+            async.addLineToQueue("flushed");
+            assertTrue(async.flush(5000), "the line should be written within the timeout");
+            ArgumentCaptor<byte[]> bytes = ArgumentCaptor.forClass(byte[].class);
+            ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+            verify(client).write(bytes.capture(), eq(0), length.capture());
+            assertTrue(new String(bytes.getValue(), 0, length.getValue(), StandardCharsets.UTF_8).endsWith(VALID_UUID + "flushed\n"));
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testCloseDrainsTheQueue() throws Exception {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .useToken(VALID_UUID)
+                        .inRegion("eu")
+                        .withLingerMs(200)
+                        .build());
+        InsightOpsClient client = mock(InsightOpsClient.class);
+        async.getAppender().iopsClient = client;
+        async.addLineToQueue("last words");
+        assertTrue(async.close(5000), "the queued line should be written before closing");
+        verify(client).write(any(byte[].class), eq(0), anyInt());
+        assertFalse(async.getAppender().isAlive(), "the sender should have stopped");
+
+        async.addLineToQueue("too late");
+        assertEquals(0, async.getQueueSize(), "lines should be ignored once closed");
+    }
+
+    @Test
+    public void testFlushTimesOutWhileNotConnected() {
+        AsyncLogger async = new AsyncLogger(new LoggerConfiguration.Builder().build());
+        async.addLineToQueue("never sent");
+        assertFalse(async.flush(100), "nothing can be written without credentials");
+        assertFalse(async.close(100));
+    }
+
+    @Test
+    public void testInvalidConfigurationDisablesTheLogger() {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .useToken(VALID_UUID)
+                        .build());
+        assertEquals("NEW", async.getState());
+        final long identifier = async.getEnqueuedLines();
+        async.addLineToQueue("never sent");
+        async.addLineToQueue("never sent either".getBytes(StandardCharsets.UTF_8));
+        assertEquals("DISABLED", async.getState(), "a missing region should disable the logger");
+        assertFalse(async.acceptsLines());
+        assertEquals(identifier, async.getEnqueuedLines(), "lines should not be queued when they can never be sent");
+        assertFalse(async.getAppender().isAlive(), "the sender should not have been started");
+        async.close();
+        assertEquals("CLOSED", async.getState());
+    }
+
+    @Test
+    public void testLoggerStartsOnceFromConcurrentThreads() throws Exception {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .useToken(VALID_UUID)
+                        .inRegion("eu")
+                        .build());
+        async.getAppender().iopsClient = mock(InsightOpsClient.class);
+        final long identifier = async.getEnqueuedLines();
+        final CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                async.addLineToQueue("first line");
+            });
+            threads[i].start();
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("RUNNING", async.getState());
+        assertEquals(identifier + threads.length, async.getEnqueuedLines(), "no line should be lost while starting");
+        assertTrue(async.flush(5000));
+        assertTrue(async.close(5000));
+        assertEquals("CLOSED", async.getState());
+        assertFalse(async.acceptsLines(), "lines should be ignored once closed");
+    }
+
+    @Test
+    public void testStatisticsAreExposedOverJmx() throws Exception {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .useToken(VALID_UUID)
+                        .inRegion("eu")
+                        .build());
+        InsightOpsClient client = mock(InsightOpsClient.class);
+        async.getAppender().iopsClient = client;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = async.getMBeanName();
+        try {
+            async.addLineToQueue("counted");
+            assertTrue(async.flush(5000));
+
+            assertEquals(2L, server.getAttribute(name, "EnqueuedLines"), "library id and line should be counted");
+            long batches = (Long) server.getAttribute(name, "BatchesWritten");
+            assertTrue(batches >= 1);
+            assertTrue((Long) server.getAttribute(name, "BytesWritten") > 0);
+            assertEquals(1L, server.getAttribute(name, "ConnectAttempts"));
+            assertEquals(0, server.getAttribute(name, "QueueSize"));
+            assertTrue(((TabularData) server.getAttribute(name, "SenderPoolBacklog")).isEmpty(), "there should be no pool backlog without the pool");
+            long recorded = 0;
+            for (long count : (long[]) server.getAttribute(name, "WriteLatencyHistogram")) {
+                recorded += count;
+            }
+            assertEquals(batches, recorded, "every write should be timed");
+        } finally {
+            async.close();
+        }
+        assertFalse(server.isRegistered(name), "the MBean should be unregistered on close");
+    }
+
+    @Test
+    public void testTimeFromQueueToConnectionIsMeasured() throws Exception {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .useToken(VALID_UUID)
+                        .inRegion("eu")
+                        .withLingerMs(200)
+                        .build());
+        async.getAppender().iopsClient = mock(InsightOpsClient.class);
+        try {
+            async.addLineToQueue("lingering");
+            assertTrue(async.flush(5000));
+
+            long lines = 0;
+            for (long count : async.getWireLatencyHistogram()) {
+                lines += count;
+            }
+            assertEquals(2, lines, "library id and line should be measured");
+            assertTrue(async.getWireLatencyMaxMicros() >= TimeUnit.MILLISECONDS.toMicros(150), "lines should have waited for the linger time");
+            assertTrue(async.getWireLatencyP50Micros() <= async.getWireLatencyP999Micros());
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testQueueingLinesDoesNotAllocate() throws Exception {
+        AsyncLogger async = new AsyncLogger(
+                new LoggerConfiguration.Builder()
+                        .useToken(VALID_UUID)
+                        .inRegion("eu")
+                        .build());
+        // Stub only, as the mock must not record the writes
+        async.getAppender().iopsClient = mock(InsightOpsClient.class, withSettings().stubOnly());
+        final String text = "a line of a typical length, logged again and again by the application";
+        final byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            double textBytes = AllocationMeter.bytesPerRun(() -> async.addLineToQueue(text), () -> assertTrue(async.flush(5000)));
+            assertTrue(textBytes <= MAX_BYTES_PER_LINE, "queueing a String allocated " + textBytes + " bytes per line");
+            double utf8Bytes = AllocationMeter.bytesPerRun(() -> async.addLineToQueue(utf8, 0, utf8.length, "logger"), () -> assertTrue(async.flush(5000)));
+            assertTrue(utf8Bytes <= MAX_BYTES_PER_LINE, "queueing bytes allocated " + utf8Bytes + " bytes per line");
+        } finally {
+            async.close();
+        }
+    }
+
+    private static LoggerConfiguration.Builder sendingTo(IngestStub stub) {
+        return new LoggerConfiguration.Builder()
+                .useToken(VALID_UUID)
+                .inRegion("eu")
+                .useSSL(false)
+                .toServerAddress(stub.getHost())
+                .toServerPort(stub.getPort());
+    }
+
+    @Test
+    public void testReconnectsWhenResetMidBatch() throws Exception {
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            AsyncLogger async = new AsyncLogger(sendingTo(stub).build());
+            try {
+                async.addLineToQueue("before the reset");
+                assertTrue(stub.awaitLines(VALID_UUID, 2, 5000), "library id and line should be received");
+
+                stub.resetAfter(100);
+                for (int i = 0; i < 50; i++) {
+                    async.addLineToQueue("cut short by the reset " + i);
+                }
+                // Lines written before the reset is noticed are lost, keep logging until one gets through
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (stub.getConnectionsAccepted() < 2 && System.nanoTime() < deadline) {
+                    async.addLineToQueue("after the reset");
+                    Thread.sleep(50);
+                }
+                long received = stub.getLines(VALID_UUID);
+                async.addLineToQueue("over the new connection");
+                assertTrue(stub.awaitLines(VALID_UUID, received + 1, 5000), "lines should be sent over the new connection");
+                assertEquals(2, stub.getConnectionsAccepted());
+                assertEquals(0, stub.getMalformedLines(), "lines should be cut at the reset only");
+                assertTrue(async.getConnectAttempts() >= 2);
+            } finally {
+                async.close();
+            }
+        }
+    }
+
+    @Test
+    public void testConnectsOnceConnectionsAreAccepted() throws Exception {
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            stub.refuseConnections(true);
+            AsyncLogger async = new AsyncLogger(sendingTo(stub).build());
+            try {
+                async.addLineToQueue("queued while refused");
+                Thread.sleep(500);
+                assertTrue(async.getConnectAttempts() >= 2, "connecting should be retried");
+                assertTrue(async.getDisconnectedMillis() > 0);
+
+                stub.refuseConnections(false);
+                assertTrue(stub.awaitLines(VALID_UUID, 2, 10000), "queued lines should be sent once connected");
+                assertEquals(1, stub.getConnectionsAccepted());
+            } finally {
+                async.close();
+            }
+        }
+    }
+
+    @Test
+    public void testStalledWriteIsAbortedAndReconnects() throws Exception {
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            AsyncLogger async = new AsyncLogger(sendingTo(stub).withWriteTimeoutMs(300).build());
+            try {
+                async.addLineToQueue("before the stall");
+                assertTrue(stub.awaitLines(VALID_UUID, 2, 5000), "library id and line should be received");
+
+                // Enough to fill the socket buffers on both ends, after which writes block
+                stub.stallReads(true);
+                char[] chars = new char[60000];
+                Arrays.fill(chars, 'x');
+                String line = new String(chars);
+                for (int i = 0; i < 400; i++) {
+                    async.addLineToQueue(line);
+                }
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (async.getStalledWrites() == 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(50);
+                }
+                assertTrue(async.getStalledWrites() > 0, "the blocked write should have been aborted");
+
+                stub.stallReads(false);
+                deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (stub.getConnectionsAccepted() < 2 && System.nanoTime() < deadline) {
+                    Thread.sleep(50);
+                }
+                assertTrue(stub.getConnectionsAccepted() >= 2, "the sender should have reconnected");
+            } finally {
+                async.close();
+            }
+        }
+    }
+
+    @Test
+    public void testWatchdogRunsOnlyWhileConnectionsAreWatched() throws Exception {
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            AsyncLogger unwatched = new AsyncLogger(sendingTo(stub).build());
+            try {
+                unwatched.addLineToQueue("not watched");
+                assertNull(WriteWatchdog.checker(), "the watchdog should not run without a write timeout");
+            } finally {
+                unwatched.close();
+            }
+            AsyncLogger async = new AsyncLogger(sendingTo(stub).withWriteTimeoutMs(30000).build());
+            Thread checker;
+            try {
+                async.addLineToQueue("watched");
+                checker = WriteWatchdog.checker();
+                assertNotNull(checker, "the watchdog should run while a connection is watched");
+            } finally {
+                async.close();
+            }
+            checker.join(5000);
+            assertFalse(checker.isAlive(), "the watchdog should stop with the last connection watched");
+        }
+    }
+
+    @Test
+    public void testHandshakeIsBoundedByTheConnectTimeout() throws Exception {
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TLS)) {
+            stub.delayHandshakes(5000);
+            AsyncLogger async = new AsyncLogger(sendingTo(stub)
+                    .useSSL(true)
+                    .withTransport(Transport.NIO)
+                    .withConnectTimeoutMs(200)
+                    .build());
+            try {
+                async.addLineToQueue("queued while the handshake hangs");
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (async.getConnectAttempts() < 2 && System.nanoTime() < deadline) {
+                    Thread.sleep(50);
+                }
+                assertTrue(async.getConnectAttempts() >= 2, "a hung handshake should time out and be retried");
+
+                stub.clearFaults();
+                assertTrue(stub.awaitLines(VALID_UUID, 2, 15000), "queued lines should be sent once the handshake completes");
+            } finally {
+                async.close();
+            }
+        }
+    }
+
+    @Test
+    public void testHttpPutLinesAreSentToTheLogLocation() throws Exception {
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.HTTP_PUT)) {
+            AsyncLogger async = new AsyncLogger(sendingTo(stub)
+                    .useHttpPut(true)
+                    .useAccountKey(VALID_UUID)
+                    .httpPutLocation("my_host/my_log")
+                    .build());
+            try {
+                async.addLineToQueue("put");
+                assertTrue(stub.awaitLines(VALID_UUID + "/my_host/my_log", 2, 5000), "library id and line should be received");
+                assertEquals(0, stub.getMalformedLines());
+            } finally {
+                async.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,161 @@
+package com.rapid7.net;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HttpBulkInsightOpsClientTest {
+
+    private static final String TOKEN = "a7ac14c3-2cc9-4f09-8fb3-73c5523e065c";
+
+    private HttpServer server;
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/noformat/" + TOKEN, exchange -> {
+            InputStream in = exchange.getRequestBody();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, n);
+            }
+            if (failuresLeft.getAndDecrement() > 0) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                received.add(new String(body.toByteArray(), UTF_8));
+                exchange.sendResponseHeaders(204, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private HttpBulkInsightOpsClient client(boolean gzip) {
+        return new HttpBulkInsightOpsClient(false, false, "127.0.0.1", server.getAddress().getPort(), "eu", TOKEN, gzip, 2);
+    }
+
+    private static void write(InsightOpsClient client, String lines) throws Exception {
+        byte[] bytes = lines.getBytes(UTF_8);
+        client.write(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testBatchIsPostedCompressed() throws Exception {
+        HttpBulkInsightOpsClient client = client(true);
+        client.connect();
+        try {
+            write(client, "first line\nsecond line\n");
+            assertEquals("first line\nsecond line\n", received.poll(5, TimeUnit.SECONDS));
+        } finally {
+            client.close(5000);
+        }
+        assertEquals(1, client.getSentBatches());
+    }
+
+    @Test
+    public void testUnavailableServerIsRetried() throws Exception {
+        failuresLeft.set(2);
+        HttpBulkInsightOpsClient client = client(false);
+        client.connect();
+        try {
+            write(client, "retried line\n");
+            assertEquals("retried line\n", received.poll(5, TimeUnit.SECONDS));
+        } finally {
+            client.close(5000);
+        }
+        assertEquals(1, client.getSentBatches());
+        assertEquals(0, client.getFailedBatches());
+    }
+
+    @Test
+    public void testLinesOfAbandonedBatchesAreReported() throws Exception {
+        failuresLeft.set(Integer.MAX_VALUE);
+        HttpBulkInsightOpsClient client = client(false);
+        AtomicLong dropped = new AtomicLong();
+        client.setDroppedLinesListener(dropped::addAndGet);
+        client.connect();
+        try {
+            write(client, "first line\nsecond line\n");
+            assertTrue(client.awaitDelivered(System.nanoTime() + TimeUnit.SECONDS.toNanos(10)), "the batch should be given up on");
+        } finally {
+            client.close(5000);
+        }
+        assertEquals(1, client.getFailedBatches());
+        assertEquals(2, dropped.get());
+    }
+
+    @Test
+    public void testFlushWaitsForRequestsToComplete() throws Exception {
+        failuresLeft.set(2);
+        AsyncLogger async = new AsyncLogger(new LoggerConfiguration.Builder()
+                .useToken(TOKEN)
+                .inRegion("eu")
+                .useSSL(false)
+                .toServerAddress("127.0.0.1")
+                .toServerPort(server.getAddress().getPort())
+                .withTransport(Transport.HTTP)
+                .build());
+        try {
+            async.addLineToQueue("retried line");
+            assertTrue(async.flush(10000));
+            StringBuilder sent = new StringBuilder();
+            String body;
+            while ((body = received.poll()) != null) {
+                sent.append(body);
+            }
+            assertTrue(sent.toString().contains("retried line\n"), "the line should have been sent when flush returns");
+        } finally {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testDroppedBatchesAreCountedByTheLogger() throws Exception {
+        failuresLeft.set(Integer.MAX_VALUE);
+        AsyncLogger async = new AsyncLogger(new LoggerConfiguration.Builder()
+                .useToken(TOKEN)
+                .inRegion("eu")
+                .useSSL(false)
+                .toServerAddress("127.0.0.1")
+                .toServerPort(server.getAddress().getPort())
+                .withTransport(Transport.HTTP)
+                .build());
+        try {
+            async.addLineToQueue("lost line");
+            async.addLineToQueue("another lost line");
+            assertTrue(async.flush(10000));
+            // Library identifier included
+            assertEquals(3, async.getDroppedLines());
+        } finally {
+            async.close();
+        }
+    }
+}
@@ -1,8 +1,17 @@
 package com.rapid7.net;
 
+import com.rapid7.util.IngestStub;
 import org.junit.jupiter.api.Test;
 
+import javax.net.ssl.SSLSession;
+import java.net.Socket;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class InsightOpsClientTest {
 
@@ -75,4 +84,47 @@ public class InsightOpsClientTest {
         assertEquals(client8.getPort(), 10000, "Port 10000 should be used because specified in the configuration");
     }
 
+    @Test
+    public void testReconnectResumesTheTlsSession() throws Exception {
+        String token = "a7ac14c3-2cc9-4f09-8fb3-73c5523e065c";
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TLS)) {
+            InsightOpsClient client = new InsightOpsClient(NOT_USE_HTTP_PUT, USE_SSL, NOT_USE_DATAHUB, stub.getHost(), stub.getPort(), "");
+            client.setTls(new TlsSettings(new String[]{"TLSv1.2"}, null, 16));
+            byte[] line = (token + " line\n").getBytes(UTF_8);
+            byte[][] sessionIds = new byte[2][];
+            for (int i = 0; i < sessionIds.length; i++) {
+                client.connect();
+                SSLSession session = client.getTlsSession();
+                assertEquals("TLSv1.2", session.getProtocol());
+                sessionIds[i] = session.getId();
+                client.write(line, 0, line.length);
+                assertTrue(stub.awaitLines(token, i + 1, 5000), "line should be received");
+                client.close();
+            }
+            assertArrayEquals(sessionIds[0], sessionIds[1], "the session of the first connection should be resumed");
+        }
+        assertSame(new TlsSettings(null, null, 16).getContext(), new TlsSettings(null, null, 16).getContext(),
+                "contexts should be shared");
+    }
+
+    @Test
+    public void testSocketSettingsAreApplied() throws Exception {
+        try (Socket socket = new Socket()) {
+            SocketSettings.DEFAULT.apply(socket);
+            assertFalse(socket.getTcpNoDelay(), "Nagle's algorithm should be left on by default");
+        }
+
+        SocketSettings settings = SocketSettings.of(new LoggerConfiguration.Builder()
+                .withSendBufferBytes(128 * 1024)
+                .useTcpNoDelay(true)
+                .useKeepAlive(true)
+                .withTrafficClass(0x10)
+                .build());
+        try (Socket socket = new Socket()) {
+            settings.apply(socket);
+            assertTrue(socket.getSendBufferSize() >= 128 * 1024, "send buffer should be enlarged");
+            assertTrue(socket.getTcpNoDelay());
+            assertTrue(socket.getKeepAlive());
+        }
+    }
 }
@@ -0,0 +1,38 @@
+package com.rapid7.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsAreLogLinear() {
+        long[] bounds = LatencyHistogram.upperBoundsMicros();
+        for (long micros = 0; micros < 1 << 20; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            assertTrue(micros <= bounds[bucket], micros + " should not exceed its bucket");
+            assertTrue(bucket == 0 || micros > bounds[bucket - 1], micros + " should not fit the previous bucket");
+            assertTrue(bounds[bucket] - micros <= micros / LatencyHistogram.SUB_BUCKETS, micros + " bucket is too wide");
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentilesAndMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentileMicros(99), "nothing recorded yet");
+        for (int i = 0; i < 999; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+
+        assertEquals(103, histogram.percentileMicros(50), "upper bound of the 96-103 bucket");
+        assertEquals(103, histogram.percentileMicros(99.9));
+        assertEquals(5000, histogram.percentileMicros(100), "capped to the longest duration");
+        assertEquals(5000, histogram.maxMicros());
+    }
+}
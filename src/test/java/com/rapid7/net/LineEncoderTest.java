@@ -0,0 +1,53 @@
+package com.rapid7.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LineEncoderTest {
+
+    private static final byte[] HEADER = "token prefix ".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testTextIsEncodedLikeStringGetBytes() {
+        String[] lines = {
+                "",
+                "plain ascii",
+                "multi\nline\n",
+                "café € 𝄞",
+                "unpaired \ud834 and \udd1e surrogates",
+                "\n\n"
+        };
+        for (String line : lines) {
+            LineEncoder encoder = new LineEncoder(HEADER, "\n", 1);
+            encoder.append(new QueuedLine().setText(line));
+            byte[] expected = ("token prefix " + line.replace("\n", " ") + "\n").getBytes(StandardCharsets.UTF_8);
+            assertArrayEquals(expected, Arrays.copyOf(encoder.array(), encoder.length()), line);
+        }
+    }
+
+    @Test
+    public void testBytesAndTextProduceTheSameLine() {
+        String line = "café\r\nsecond 𝄞 line";
+        LineEncoder text = new LineEncoder(HEADER, "\r\n", 16);
+        text.append(new QueuedLine().setText(line));
+        LineEncoder bytes = new LineEncoder(HEADER, "\r\n", 16);
+        byte[] utf8 = line.getBytes(StandardCharsets.UTF_8);
+        bytes.append(new QueuedLine().setBytes(utf8, 0, utf8.length));
+        assertArrayEquals(Arrays.copyOf(text.array(), text.length()), Arrays.copyOf(bytes.array(), bytes.length()));
+    }
+
+    @Test
+    public void testLinesAreAppendedToOneBuffer() {
+        LineEncoder encoder = new LineEncoder(new byte[0], "\n", 4);
+        encoder.append(new QueuedLine().setText("one"));
+        encoder.append(new QueuedLine().setEncoded(new StringBuilder("two")));
+        assertEquals("one\ntwo\n", new String(encoder.array(), 0, encoder.length(), StandardCharsets.UTF_8));
+        encoder.reset();
+        assertEquals(0, encoder.length());
+    }
+}
@@ -0,0 +1,56 @@
+package com.rapid7.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LineSplitterTest {
+
+    @Test
+    public void testTextCutsRespectByteBudgetAndSurrogatePairs() {
+        String line = "abé𝄞cd";
+        // a, b = 1 byte each, e-acute = 2 bytes, the surrogate pair = 4 bytes
+        assertEquals(2, LineSplitter.nextCut(line, 0, line.length(), 3));
+        assertEquals(3, LineSplitter.nextCut(line, 0, line.length(), 4));
+        assertEquals(3, LineSplitter.nextCut(line, 0, line.length(), 7), "a surrogate pair must not be cut");
+        assertEquals(5, LineSplitter.nextCut(line, 0, line.length(), 8));
+        assertEquals(3, LineSplitter.countParts(line, 0, line.length(), 4));
+    }
+
+    @Test
+    public void testLineBreaksCountAsTheirReplacement() {
+        String line = "a\nb";
+        assertEquals(1, LineSplitter.nextCut(line, 0, line.length(), 3));
+        assertEquals(2, LineSplitter.nextCut(line, 0, line.length(), 4));
+    }
+
+    @Test
+    public void testByteCutsFallOnCharacterBoundaries() {
+        byte[] utf8 = "éééé".getBytes(StandardCharsets.UTF_8);
+        assertEquals(2, LineSplitter.nextCut(utf8, 0, utf8.length, 3));
+        assertEquals(4, LineSplitter.nextCut(utf8, 0, utf8.length, 5));
+        assertEquals(8, LineSplitter.nextCut(utf8, 0, utf8.length, 100));
+        assertEquals(4, LineSplitter.countParts(utf8, 0, utf8.length, 3));
+    }
+
+    @Test
+    public void testEveryPartDecodesCleanly() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("x€𝄞\n");
+        }
+        byte[] utf8 = sb.toString().getBytes(StandardCharsets.UTF_8);
+        StringBuilder joined = new StringBuilder();
+        int start = 0;
+        while (start < utf8.length) {
+            int cut = LineSplitter.nextCut(utf8, start, utf8.length, 1000);
+            assertTrue(cut > start);
+            joined.append(new String(utf8, start, cut - start, StandardCharsets.UTF_8));
+            start = cut;
+        }
+        assertEquals(sb.toString(), joined.toString());
+    }
+}
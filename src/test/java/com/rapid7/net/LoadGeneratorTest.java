@@ -0,0 +1,56 @@
+package com.rapid7.net;
+
+import com.rapid7.util.IngestStub;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoadGeneratorTest {
+
+    private static final String VALID_UUID = "a7ac14c3-2cc9-4f09-8fb3-73c5523e065c";
+
+    @Test
+    public void testOptionsAreChecked() {
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[]{"--rate=1000"}));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[]{"--token=" + VALID_UUID, "--threads=many"}));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[]{"--token=" + VALID_UUID, "--size=normal:10"}));
+        assertThrows(IllegalArgumentException.class, () -> LoadGenerator.Options.parse(new String[]{"--mode=put", "--key=" + VALID_UUID}));
+    }
+
+    @Test
+    public void testSizesFollowTheDistribution() {
+        LoadGenerator.SizeDistribution uniform = LoadGenerator.SizeDistribution.parse("uniform:10:20");
+        for (String message : uniform.messages(1000, new Random(1))) {
+            assertTrue(message.length() >= 10 && message.length() <= 20);
+        }
+        assertEquals(100, LoadGenerator.SizeDistribution.parse("fixed:100").messages(1, new Random(1))[0].length());
+    }
+
+    @Test
+    public void testLinesAreSentAtTheRate() throws Exception {
+        try (IngestStub stub = IngestStub.start(IngestStub.Mode.TCP)) {
+            LoadGenerator.Options options = LoadGenerator.Options.parse(new String[]{
+                    "--mode=tcp", "--host=" + stub.getHost(), "--port=" + stub.getPort(), "--token=" + VALID_UUID,
+                    "--threads=2", "--rate=1000", "--duration=1", "--size=uniform:50:150"});
+            LoadGenerator.Report report = LoadGenerator.run(options);
+
+            assertTrue(report.drained, "all lines should be sent");
+            assertTrue(report.generated >= 500 && report.generated <= 1000, "about a second's worth of lines should be logged");
+            assertEquals(0, report.dropped);
+            assertEquals(report.generated + 1, report.written, "lines and library id should be sent");
+            assertTrue(stub.awaitLines(VALID_UUID, report.written, 5000));
+            assertEquals(report.bytesWritten, stub.getBytes(VALID_UUID));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            report.print(new PrintStream(out, true, "UTF-8"));
+            assertTrue(new String(out.toByteArray(), UTF_8).contains("Sent              " + report.written + " lines"));
+        }
+    }
+}
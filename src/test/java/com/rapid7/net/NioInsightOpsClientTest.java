@@ -0,0 +1,142 @@
+package com.rapid7.net;
+
+import com.rapid7.util.SocketChannelReceiver;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NioInsightOpsClientTest {
+
+    private static void write(InsightOpsClient client, String line) throws Exception {
+        byte[] bytes = line.getBytes(UTF_8);
+        client.write(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testPlainLinesAreSent() throws Exception {
+        SocketChannelReceiver receiver = SocketChannelReceiver.createAndStartReceiver(10010, false);
+        NioInsightOpsClient client = new NioInsightOpsClient(false, false, true, "127.0.0.1", 10010, "");
+        try {
+            client.connect();
+            write(client, "first line\n");
+            write(client, "second line\n");
+            assertEquals("first line", receiver.pollMessage());
+            assertEquals("second line", receiver.pollMessage());
+        } finally {
+            client.close();
+            receiver.close();
+        }
+    }
+
+    /**
+     * This test needs the unit_test_key_store.jks certificate to be added to Trust Store, this is done in the pom.xml
+     */
+    @Test
+    public void testTlsLinesAreSent() throws Exception {
+        SocketChannelReceiver receiver = SocketChannelReceiver.createAndStartReceiver(20010, true);
+        NioInsightOpsClient client = new NioInsightOpsClient(false, true, false, "localhost", 20010, "");
+        try {
+            client.connect();
+            write(client, "encrypted line\n");
+            assertEquals("encrypted line", receiver.pollMessage());
+        } finally {
+            client.close();
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testSlowPeerIsBuffered() throws Exception {
+        byte[] payload = new byte[3 * 1024 * 1024];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        try (ServerSocket server = new ServerSocket(0)) {
+            NioInsightOpsClient client = new NioInsightOpsClient(false, false, true, "127.0.0.1", server.getLocalPort(), "");
+            try {
+                client.connect();
+                try (Socket peer = server.accept()) {
+                    // The peer does not read anything yet
+                    long start = System.nanoTime();
+                    client.write(payload, 0, payload.length);
+                    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5), "the write should not wait for the peer");
+
+                    CompletableFuture<byte[]> received = CompletableFuture.supplyAsync(() -> {
+                        byte[] bytes = new byte[payload.length];
+                        try (InputStream in = peer.getInputStream()) {
+                            new DataInputStream(in).readFully(bytes);
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return bytes;
+                    });
+                    assertArrayEquals(payload, received.get(10, TimeUnit.SECONDS), "buffered data should be sent in order");
+                    assertEquals(0, client.getPendingBytes());
+                }
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testEventLoopStopsWithTheLastConnection() throws Exception {
+        SocketChannelReceiver receiver = SocketChannelReceiver.createAndStartReceiver(10011, false);
+        NioInsightOpsClient first = new NioInsightOpsClient(false, false, true, "127.0.0.1", 10011, "");
+        NioInsightOpsClient second = new NioInsightOpsClient(false, false, true, "127.0.0.1", 10011, "");
+        try {
+            first.connect();
+            second.connect();
+            NioEventLoop loop = NioEventLoop.running();
+            assertNotNull(loop);
+
+            first.close();
+            assertTrue(loop == NioEventLoop.running(), "the loop should run while a connection is open");
+            assertTrue(loop.isAlive());
+
+            second.close();
+            loop.join(5000);
+            assertFalse(loop.isAlive(), "the loop should stop with the last connection");
+            assertNull(NioEventLoop.running());
+        } finally {
+            first.close();
+            second.close();
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testEventLoopSurvivesAFailedRegistration() throws Exception {
+        SocketChannelReceiver receiver = SocketChannelReceiver.createAndStartReceiver(10012, false);
+        NioInsightOpsClient client = new NioInsightOpsClient(false, false, true, "127.0.0.1", 10012, "");
+        try (SocketChannel blocking = SocketChannel.open()) {
+            client.connect();
+            NioEventLoop loop = NioEventLoop.running();
+            // A channel in blocking mode cannot be registered with a selector
+            assertThrows(IOException.class, () -> loop.register(blocking, client));
+            assertTrue(loop.isAlive(), "the loop should keep running for the other connections");
+
+            write(client, "still sent\n");
+            assertEquals("still sent", receiver.pollMessage());
+        } finally {
+            client.close();
+            receiver.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.rapid7.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RingBufferQueueTest {
+
+    @Test
+    public void testCapacityIsRoundedToPowerOfTwo() {
+        assertEquals(2, new RingBufferQueue<String>(1, WaitStrategy.BLOCKING).capacity());
+        assertEquals(8, new RingBufferQueue<String>(5, WaitStrategy.BLOCKING).capacity());
+        assertEquals(32768, new RingBufferQueue<String>(32768, WaitStrategy.BLOCKING).capacity());
+    }
+
+    @Test
+    public void testOfferAndPollInOrder() {
+        RingBufferQueue<String> queue = new RingBufferQueue<>(4, WaitStrategy.BLOCKING);
+        for (int lap = 0; lap < 3; lap++) {
+            assertTrue(queue.offer("a"));
+            assertTrue(queue.offer("b"));
+            assertTrue(queue.offer("c"));
+            assertTrue(queue.offer("d"));
+            assertFalse(queue.offer("e"), "offer should fail when the ring is full");
+            assertEquals(4, queue.size());
+            assertEquals(0, queue.remainingCapacity());
+            assertEquals("a", queue.poll());
+            List<String> drained = new ArrayList<>();
+            assertEquals(2, queue.drainTo(drained, 2));
+            assertEquals("b", drained.get(0));
+            assertEquals("c", drained.get(1));
+            assertEquals("d", queue.poll());
+            assertNull(queue.poll(), "poll should return null when the ring is empty");
+        }
+    }
+
+    @Test
+    public void testPeekAndIterationSeeOnlyQueuedElements() {
+        RingBufferQueue<String> queue = new RingBufferQueue<>(2, WaitStrategy.BLOCKING);
+        assertNull(queue.peek());
+        assertEquals("[]", queue.toString());
+        assertTrue(queue.offer("a"));
+        assertTrue(queue.offer("b"));
+        assertEquals("a", queue.poll());
+        assertTrue(queue.offer("c"));
+        assertEquals("b", queue.peek());
+        assertEquals("[b, c]", queue.toString());
+        assertTrue(queue.contains("c"));
+        assertFalse(queue.contains("a"), "taken elements should not be seen");
+        assertArrayEquals(new Object[]{"b", "c"}, queue.toArray());
+        assertEquals("b", queue.poll());
+        assertEquals("c", queue.poll());
+        assertNull(queue.peek(), "an element of the previous lap should not be seen");
+        assertEquals(2, queue.size() + queue.remainingCapacity());
+    }
+
+    @Test
+    public void testTimedPollAndOfferTimeOut() throws Exception {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            RingBufferQueue<String> queue = new RingBufferQueue<>(2, strategy);
+            assertNull(queue.poll(10, TimeUnit.MILLISECONDS), strategy + " poll should time out");
+            assertTrue(queue.offer("a"));
+            assertTrue(queue.offer("a"));
+            assertFalse(queue.offer("b", 10, TimeUnit.MILLISECONDS), strategy + " offer should time out");
+        }
+    }
+
+    @Test
+    public void testTakeIsInterruptible() throws Exception {
+        RingBufferQueue<String> queue = new RingBufferQueue<>(2, WaitStrategy.BLOCKING);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Thread consumer = new Thread(() -> {
+            try {
+                queue.take();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        consumer.start();
+        consumer.interrupt();
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS), "take should throw InterruptedException");
+    }
+
+    @Test
+    public void testConcurrentProducersDeliverEveryElement() throws Exception {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            final int producers = 4;
+            final int perProducer = 5000;
+            final RingBufferQueue<Integer> queue = new RingBufferQueue<>(64, strategy);
+            List<Thread> threads = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final int base = p * perProducer;
+                Thread t = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < perProducer; i++) {
+                            queue.put(base + i);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+            boolean[] seen = new boolean[producers * perProducer];
+            int[] lastPerProducer = new int[producers];
+            java.util.Arrays.fill(lastPerProducer, -1);
+            for (int n = 0; n < seen.length; n++) {
+                Integer value = queue.poll(5, TimeUnit.SECONDS);
+                assertTrue(value != null, strategy + " lost an element");
+                assertFalse(seen[value], strategy + " delivered an element twice");
+                seen[value] = true;
+                int producer = value / perProducer;
+                assertTrue(value > lastPerProducer[producer], strategy + " reordered a producer's elements");
+                lastPerProducer[producer] = value;
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertTrue(queue.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.rapid7.net;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SpillJournalTest {
+
+    @TempDir
+    File directory;
+
+    private static String read(QueuedLine line) {
+        return new String(line.bytes, 0, line.length, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLinesAreSpilledOnlyOnceStarted() throws IOException {
+        SpillJournal journal = new SpillJournal(directory, 0, 0);
+        try {
+            assertEquals(SpillJournal.Outcome.NOT_SPILLING, journal.offer(new QueuedLine().setText("queued"), false));
+            assertEquals(SpillJournal.Outcome.SPILLED, journal.offer(new QueuedLine().setText("first"), true));
+            assertEquals(SpillJournal.Outcome.SPILLED, journal.offer(new QueuedLine().setText("second €"), false));
+            assertTrue(journal.isSpilling());
+
+            QueuedLine line = new QueuedLine();
+            assertTrue(journal.poll(line));
+            assertEquals("first", read(line));
+            assertTrue(journal.poll(line));
+            assertEquals("second €", read(line));
+            assertFalse(journal.poll(line));
+            assertFalse(journal.isSpilling(), "a drained journal should stop spilling");
+            assertEquals(2, directory.list().length, "the segment written to should be kept");
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testDrainedSegmentIsReusedInPlace() throws IOException {
+        SpillJournal journal = new SpillJournal(directory, 0, 0);
+        QueuedLine line = new QueuedLine();
+        journal.offer(new QueuedLine().setText("a rather long first line"), true);
+        assertTrue(journal.poll(line));
+        assertFalse(journal.poll(line));
+        String[] files = directory.list();
+
+        journal.offer(new QueuedLine().setText("short"), true);
+        assertEquals(files.length, directory.list().length, "no segment should be created after catching up");
+        assertTrue(journal.poll(line));
+        assertEquals("short", read(line));
+        journal.offer(new QueuedLine().setText("unread"), true);
+        journal.close();
+
+        SpillJournal reopened = new SpillJournal(directory, 0, 0);
+        try {
+            assertTrue(reopened.poll(line));
+            assertEquals("unread", read(line), "what the reused segment held before should not be replayed");
+            assertFalse(reopened.poll(line));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testUnreadLinesAreReplayedAfterRestart() throws IOException {
+        SpillJournal journal = new SpillJournal(directory, 0, 0);
+        QueuedLine marked = new QueuedLine().setText("second");
+        marked.marker = "[1 2/2] ";
+        journal.offer(new QueuedLine().setText("first"), true);
+        journal.offer(marked, false);
+        journal.offer(new QueuedLine().setBytes("third".getBytes(StandardCharsets.UTF_8), 0, 5), false);
+        QueuedLine line = new QueuedLine();
+        assertTrue(journal.poll(line));
+        assertEquals("first", read(line));
+        journal.close();
+
+        SpillJournal reopened = new SpillJournal(directory, 0, 0);
+        try {
+            assertTrue(reopened.isSpilling());
+            assertTrue(reopened.poll(line));
+            assertEquals("[1 2/2] second", read(line), "lines already read should not be replayed");
+            assertTrue(reopened.poll(line));
+            assertEquals("third", read(line));
+            assertFalse(reopened.poll(line));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testJournalIsBoundedBySize() throws IOException {
+        SpillJournal journal = new SpillJournal(directory, SpillJournal.MIN_SEGMENT_BYTES, SpillJournal.MIN_SEGMENT_BYTES);
+        try {
+            byte[] payload = new byte[100 * 1024];
+            QueuedLine line = new QueuedLine().setBytes(payload, 0, payload.length);
+            int spilled = 0;
+            while (journal.offer(line, true) == SpillJournal.Outcome.SPILLED) {
+                spilled++;
+            }
+            assertEquals(10, spilled);
+            assertEquals(SpillJournal.Outcome.FULL, journal.offer(line, false));
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void testDirectoryCannotBeShared() throws IOException {
+        SpillJournal journal = new SpillJournal(directory, 0, 0);
+        try {
+            assertThrows(IOException.class, () -> new SpillJournal(directory, 0, 0));
+        } finally {
+            journal.close();
+        }
+    }
+}
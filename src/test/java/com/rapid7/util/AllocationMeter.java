@@ -0,0 +1,63 @@
+package com.rapid7.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Measures the bytes allocated by the current thread, to catch allocations creeping into
+ * the per-event path.
+ * <p>
+ * Events are logged in rounds small enough for the line pool, each followed by waiting
+ * until they are sent, so that the measure reflects a sender keeping up rather than how
+ * threads happened to be scheduled.
+ */
+public final class AllocationMeter {
+
+    /**
+     * Events logged per round, fewer than the line pool holds.
+     */
+    public static final int ROUND = 200;
+    private static final int WARM_UP_ROUNDS = 500;
+    private static final int MEASURED_ROUNDS = 250;
+
+    private AllocationMeter() {
+    }
+
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs the action until it is compiled, then returns the average number of bytes it
+     * allocates per run. Skips the test when the JVM cannot measure allocations.
+     *
+     * @param action logs one event
+     * @param settle waits until the events logged so far are sent, not measured
+     */
+    public static double bytesPerRun(Step action, Step settle) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean, "allocations cannot be measured");
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled(), "allocations are not measured");
+
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            for (int i = 0; i < ROUND; i++) {
+                action.run();
+            }
+            settle.run();
+        }
+        final long id = Thread.currentThread().getId();
+        long allocated = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            final long before = bean.getThreadAllocatedBytes(id);
+            for (int i = 0; i < ROUND; i++) {
+                action.run();
+            }
+            allocated += bean.getThreadAllocatedBytes(id) - before;
+            settle.run();
+        }
+        return (double) allocated / (MEASURED_ROUNDS * ROUND);
+    }
+}
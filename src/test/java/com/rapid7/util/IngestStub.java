@@ -0,0 +1,489 @@
+package com.rapid7.util;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Stub of the InsightOps ingestion endpoint for load and failure tests.
+ * <p>
+ * Unlike {@link SocketChannelReceiver} it accepts any number of connections, each read by its
+ * own thread, and only counts what it receives: the lines and bytes sent for each token, and
+ * the lines not framed as the library frames them. In {@link Mode#HTTP_PUT} lines carry no
+ * token and are counted for the {@code key/location} of the request opening the connection.
+ * <p>
+ * Faults can be switched on and off at any time, to see how clients behave while the
+ * endpoint is slow, stalled, resetting connections or unreachable.
+ */
+public final class IngestStub implements AutoCloseable {
+
+    public enum Mode {
+        /**
+         * Token-prefixed lines over plain TCP.
+         */
+        TCP,
+        /**
+         * Token-prefixed lines over TLS, using the unit test key store.
+         */
+        TLS,
+        /**
+         * A {@code PUT} request head followed by lines, over plain TCP.
+         */
+        HTTP_PUT
+    }
+
+    private static final int TOKEN_LENGTH = 36;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_REQUEST_HEAD = 8 * 1024;
+    private static final long NO_RESET = -1;
+    private static final long STALL_POLL_MS = 10;
+    private static final long AWAIT_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final Pattern PUT_REQUEST = Pattern.compile("PUT /([^/ ]+)/hosts/([^ ?]+?)/?(\\?\\S*)? HTTP/1\\.1\r\n.*", Pattern.DOTALL);
+    private static final char[] SSL_CERTIFICATE_PASSWORD = "keypassword".toCharArray();
+
+    private final Mode mode;
+    private final SSLContext sslContext;
+    private volatile ServerSocketChannel server;
+    private volatile int port;
+    private volatile boolean closed;
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, Counts> counts = new ConcurrentHashMap<>();
+    private final LongAdder malformedLines = new LongAdder();
+    private final AtomicInteger connectionsAccepted = new AtomicInteger();
+
+    private volatile int readBytesPerSecond;
+    private volatile boolean readsStalled;
+    private volatile long handshakeDelayMs;
+    private final AtomicLong resetBudget = new AtomicLong(NO_RESET);
+
+    private IngestStub(Mode mode) throws IOException {
+        this.mode = mode;
+        this.sslContext = mode == Mode.TLS ? initSslContext() : null;
+        listen(0);
+    }
+
+    /**
+     * Starts a stub listening on an ephemeral port of the loopback interface.
+     */
+    public static IngestStub start(Mode mode) throws IOException {
+        return new IngestStub(mode);
+    }
+
+    public String getHost() {
+        return InetAddress.getLoopbackAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Number of well formed lines received for the token.
+     */
+    public long getLines(String token) {
+        Counts c = counts.get(token);
+        return c == null ? 0 : c.lines.sum();
+    }
+
+    /**
+     * Number of bytes received in well formed lines for the token, newlines included.
+     */
+    public long getBytes(String token) {
+        Counts c = counts.get(token);
+        return c == null ? 0 : c.bytes.sum();
+    }
+
+    /**
+     * Number of lines not starting with a token, or requests not opening a log.
+     */
+    public long getMalformedLines() {
+        return malformedLines.sum();
+    }
+
+    public int getConnectionsAccepted() {
+        return connectionsAccepted.get();
+    }
+
+    public int getOpenConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Waits until at least the given number of lines was received for the token.
+     *
+     * @return false if they were not received within the timeout
+     */
+    public boolean awaitLines(String token, long lines, long timeoutMs) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (getLines(token) < lines) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(AWAIT_POLL_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Limits how fast every connection is read, 0 to read as fast as possible.
+     */
+    public void slowReads(int bytesPerSecond) {
+        readBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Stops or resumes reading from all connections; their data then fills the socket buffers
+     * until the clients block.
+     */
+    public void stallReads(boolean stalled) {
+        readsStalled = stalled;
+    }
+
+    /**
+     * Resets the connection reading the given byte from now on, after counting the lines
+     * completed before it. Any line in flight is lost, as when the endpoint fails mid-batch.
+     */
+    public void resetAfter(long bytes) {
+        resetBudget.set(Math.max(bytes, 0));
+    }
+
+    /**
+     * Resets all open connections now.
+     */
+    public void resetConnections() {
+        for (Connection connection : connections) {
+            connection.reset();
+        }
+    }
+
+    /**
+     * Stops listening, so that connecting fails, or listens again on the same port.
+     */
+    public synchronized void refuseConnections(boolean refuse) throws IOException {
+        if (refuse && server != null) {
+            server.close();
+            server = null;
+        } else if (!refuse && server == null && !closed) {
+            listen(port);
+        }
+    }
+
+    /**
+     * Waits before answering the TLS handshake of every new connection.
+     */
+    public void delayHandshakes(long millis) {
+        handshakeDelayMs = millis;
+    }
+
+    /**
+     * Switches all faults off.
+     */
+    public void clearFaults() throws IOException {
+        readBytesPerSecond = 0;
+        readsStalled = false;
+        handshakeDelayMs = 0;
+        resetBudget.set(NO_RESET);
+        refuseConnections(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void listen(int port) throws IOException {
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.port = channel.socket().getLocalPort();
+        this.server = channel;
+        Thread acceptor = new Thread(() -> accept(channel), "Ingest stub acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void accept(ServerSocketChannel channel) {
+        try {
+            while (true) {
+                Connection connection = new Connection(channel.accept());
+                connectionsAccepted.incrementAndGet();
+                connections.add(connection);
+                connection.start();
+            }
+        } catch (IOException e) {
+            // Closed, or refusing connections
+        }
+    }
+
+    private SSLContext initSslContext() throws IOException {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("unit_test_key_store.jks")) {
+            KeyStore ks = KeyStore.getInstance("JKS");
+            ks.load(in, SSL_CERTIFICATE_PASSWORD);
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(ks, SSL_CERTIFICATE_PASSWORD);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(kmf.getKeyManagers(), null, null);
+            return context;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to load the unit test key store", e);
+        }
+    }
+
+    private Counts countsFor(String token) {
+        return counts.computeIfAbsent(token, t -> new Counts());
+    }
+
+    private static boolean isToken(byte[] head) {
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            final byte b = head[i];
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (b != '-') {
+                    return false;
+                }
+            } else if (!(b >= '0' && b <= '9' || b >= 'a' && b <= 'f' || b >= 'A' && b <= 'F')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Counts {
+        final LongAdder lines = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    /**
+     * Reads and counts the lines of one connection.
+     */
+    private final class Connection extends Thread {
+        private final SocketChannel channel;
+
+        // Start of the current line, holding its token once complete
+        private final byte[] head = new byte[TOKEN_LENGTH];
+        private int headLength;
+        private long lineBytes;
+        // Token of the previous line, which the next is most likely to share
+        private byte[] lastToken;
+        private Counts lastCounts;
+        // Request head in HTTP PUT mode, until the log it opens is known
+        private ByteArrayOutputStream request;
+        private Counts logCounts;
+        private boolean resetting;
+
+        Connection(SocketChannel channel) {
+            super("Ingest stub connection");
+            setDaemon(true);
+            this.channel = channel;
+            if (mode == Mode.HTTP_PUT) {
+                request = new ByteArrayOutputStream();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                InputStream in = null;
+                if (mode == Mode.TLS) {
+                    final long delay = handshakeDelayMs;
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                    SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket(channel.socket(), null, true);
+                    socket.startHandshake();
+                    in = socket.getInputStream();
+                }
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                while (!closed) {
+                    if (readsStalled) {
+                        Thread.sleep(STALL_POLL_MS);
+                        continue;
+                    }
+                    final int rate = readBytesPerSecond;
+                    final int max = rate > 0 ? Math.max(1, Math.min(BUFFER_SIZE, rate / 10)) : BUFFER_SIZE;
+                    final int read;
+                    if (in != null) {
+                        read = in.read(buffer, 0, max);
+                    } else {
+                        wrapped.clear();
+                        wrapped.limit(max);
+                        read = channel.read(wrapped);
+                    }
+                    if (read < 0) {
+                        break;
+                    }
+                    final int accepted = takeResetBudget(read);
+                    parse(buffer, accepted);
+                    if (resetting) {
+                        reset();
+                        break;
+                    }
+                    if (rate > 0) {
+                        TimeUnit.NANOSECONDS.sleep(read * TimeUnit.SECONDS.toNanos(1) / rate);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // Closed by the client, reset or malformed
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Returns how many of the bytes read may be counted before resetting the connection.
+         */
+        private int takeResetBudget(int read) {
+            while (true) {
+                final long budget = resetBudget.get();
+                if (budget == NO_RESET) {
+                    return read;
+                }
+                if (budget > read) {
+                    if (resetBudget.compareAndSet(budget, budget - read)) {
+                        return read;
+                    }
+                } else if (resetBudget.compareAndSet(budget, NO_RESET)) {
+                    resetting = true;
+                    return (int) budget;
+                }
+            }
+        }
+
+        private void parse(byte[] bytes, int length) throws IOException {
+            int start = 0;
+            if (request != null) {
+                start = parseRequest(bytes, length);
+            }
+            for (int i = start; i < length; i++) {
+                if (bytes[i] == '\n') {
+                    take(bytes, start, i + 1);
+                    endLine();
+                    start = i + 1;
+                }
+            }
+            take(bytes, start, length);
+        }
+
+        /**
+         * Consumes the request head, returning the offset of the first line once complete.
+         */
+        private int parseRequest(byte[] bytes, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                request.write(bytes[i]);
+                if (bytes[i] == '\n' && endsWithBlankLine()) {
+                    Matcher matcher = PUT_REQUEST.matcher(new String(request.toByteArray(), US_ASCII));
+                    if (!matcher.matches()) {
+                        malformedLines.increment();
+                        throw new IOException("Not a PUT request opening a log");
+                    }
+                    logCounts = countsFor(matcher.group(1) + "/" + matcher.group(2));
+                    request = null;
+                    return i + 1;
+                }
+            }
+            if (request.size() > MAX_REQUEST_HEAD) {
+                malformedLines.increment();
+                throw new IOException("Request head too long");
+            }
+            return length;
+        }
+
+        private boolean endsWithBlankLine() {
+            final byte[] r = request.toByteArray();
+            final int n = r.length;
+            return n >= 4 && r[n - 4] == '\r' && r[n - 3] == '\n' && r[n - 2] == '\r' && r[n - 1] == '\n';
+        }
+
+        private void take(byte[] bytes, int from, int to) {
+            final int n = Math.min(TOKEN_LENGTH - headLength, to - from);
+            if (n > 0) {
+                System.arraycopy(bytes, from, head, headLength, n);
+                headLength += n;
+            }
+            lineBytes += to - from;
+        }
+
+        private void endLine() {
+            final Counts c = logCounts != null ? logCounts : tokenCounts();
+            if (c == null) {
+                malformedLines.increment();
+            } else {
+                c.lines.increment();
+                c.bytes.add(lineBytes);
+            }
+            headLength = 0;
+            lineBytes = 0;
+        }
+
+        private Counts tokenCounts() {
+            if (headLength < TOKEN_LENGTH) {
+                return null;
+            }
+            if (lastCounts == null || !Arrays.equals(head, lastToken)) {
+                if (!isToken(head)) {
+                    return null;
+                }
+                lastToken = head.clone();
+                lastCounts = countsFor(new String(head, US_ASCII));
+            }
+            return lastCounts;
+        }
+
+        /**
+         * Closes the connection with a TCP reset rather than an orderly shut down.
+         */
+        void reset() {
+            try {
+                channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+            } catch (IOException e) {
+                // Already closed
+            }
+            close();
+        }
+
+        void close() {
+            connections.remove(this);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}